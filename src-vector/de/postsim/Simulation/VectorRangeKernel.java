@@ -0,0 +1,32 @@
+package de.postsim.Simulation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * RangeKernel testing as many candidates at once as the CPU has lanes for doubles.
+ * Needs the jdk.incubator.vector module to compile and run (--add-modules jdk.incubator.vector), so it has a source root
+ * of its own. It is only loaded by name from RangeKernel.getInstance, so the rest of the simulation works without it.
+ */
+class VectorRangeKernel extends RangeKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public int select(double x, double y, double[] xs, double[] ys, int count, double squaredrange, int[] result) {
+		int n = 0;
+		int i = 0;
+		int bound = SPECIES.loopBound(count);
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, i).sub(x);
+			DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, i).sub(y);
+			// no fused multiply add, the squared distances have to be the same as the scalar ones
+			VectorMask<Double> inrange = dx.mul(dx).add(dy.mul(dy)).lt(squaredrange);
+			for (long lanes = inrange.toLong(); lanes != 0; lanes &= lanes - 1) {
+				result[n++] = i + Long.numberOfTrailingZeros(lanes);
+			}
+		}
+		return selectScalar(x, y, xs, ys, i, count, squaredrange, result, n);
+	}
+}
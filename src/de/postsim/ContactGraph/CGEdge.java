@@ -4,7 +4,7 @@ package de.postsim.ContactGraph;
  *
  */
  public class CGEdge extends CGElement {
- public CGEdge(){
-  super();
+ public CGEdge(int id){
+  super(id);
  }
 }
@@ -5,11 +5,13 @@ package de.postsim.ContactGraph;
  */
 public class CGElement {
     private Integer id;
-    private static Integer lastID = 0;
 
-    public CGElement(){
-        lastID++;
-        this.id = lastID;
+    /** Element with an id given by its contact graph, which counts the ids of its elements.
+     *
+     * @param id
+     */
+    public CGElement(int id){
+        this.id = id;
     }
 
     public Integer getId() {
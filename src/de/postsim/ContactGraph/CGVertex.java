@@ -6,7 +6,7 @@ import org.jgrapht.ext.ComponentAttributeProvider;
  *
  */
 public class CGVertex extends CGElement{
-    public CGVertex(){
-        super();
+    public CGVertex(int id){
+        super(id);
     }
 }
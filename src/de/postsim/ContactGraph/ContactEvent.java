@@ -1,6 +1,5 @@
 package de.postsim.ContactGraph;
 
-import com.sun.deploy.util.StringUtils;
 import de.postsim.Objects.Coordinate;
 import de.postsim.Objects.User;
 import org.jgrapht.ext.ComponentAttributeProvider;
@@ -16,17 +15,22 @@ public class ContactEvent extends CGVertex {
     private Coordinate coord;
     private long startTime;
     private long endTime;
+    private double exactStartTime;   // moment the users got into range, in cycles
+    private double exactEndTime;     // moment the users got out of range, in cycles
 
 
 
-    public ContactEvent(List<User> users, Coordinate coord,
+    /** Contact event with an id given by its contact graph.
+     */
+    public ContactEvent(int id, List<User> users, Coordinate coord,
                         long startTime, long endTime) {
-        super();
+        super(id);
         this.users = users;
         this.coord = coord;
         this.startTime = startTime;
         this.endTime = endTime;
-
+        this.exactStartTime = startTime;
+        this.exactEndTime = endTime;
     }
 
     public String toString() {
@@ -60,6 +64,22 @@ public class ContactEvent extends CGVertex {
         this.endTime = endTime;
     }
 
+    public double getExactStartTime() {
+        return exactStartTime;
+    }
+
+    public void setExactStartTime(double exactStartTime) {
+        this.exactStartTime = exactStartTime;
+    }
+
+    public double getExactEndTime() {
+        return exactEndTime;
+    }
+
+    public void setExactEndTime(double exactEndTime) {
+        this.exactEndTime = exactEndTime;
+    }
+
     public List<User> getUsers() {
         return users;
     }
@@ -69,11 +89,13 @@ public class ContactEvent extends CGVertex {
         Map<String,String> attrs = new HashMap<String, String>();
         attrs.put("start", Long.toString(this.getStartTime()));
         attrs.put("end", Long.toString(this.getEndTime()));
+        attrs.put("exactstart", Double.toString(this.getExactStartTime()));
+        attrs.put("exactend", Double.toString(this.getExactEndTime()));
         attrs.put("pos", this.getCoord().toString());
         Collection<String> userIDs = new ArrayList<>();
         for (User user: this.getUsers())
             userIDs.add(Integer.toString(user.getUsernumber()));
-        attrs.put("users", StringUtils.join(userIDs, ","));
+        attrs.put("users", String.join(",", userIDs));
         return attrs;
     }
 
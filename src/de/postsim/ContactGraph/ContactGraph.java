@@ -3,6 +3,8 @@ package de.postsim.ContactGraph;
 import de.postsim.Objects.Coordinate;
 import de.postsim.Objects.User;
 
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -35,6 +37,10 @@ public class ContactGraph implements Serializable  {
     private List<MovementEvent> movement = new ArrayList<MovementEvent>();
 
     private Graph<CGVertex,CGEdge> graph;
+    private int lastID;     // ids are counted per graph, so they don't depend on other simulations running at the same time
+    private List<CGVertex> events = new ArrayList<CGVertex>();                  // contacts and movements in the order they were created
+    private int journaled;                                                      // events already written by writeJournal
+    private List<ContactEvent> journaledopen = new ArrayList<ContactEvent>();   // open contacts at the last writeJournal, they may have changed since
 
 
     public ContactGraph(){
@@ -85,23 +91,25 @@ public class ContactGraph implements Serializable  {
 
     private ContactEvent newContact(List<User> users, Coordinate coord,
                             long startTime, long endTime) {
-        ContactEvent contact = new ContactEvent(users, coord, startTime, endTime);
+        ContactEvent contact = new ContactEvent(++lastID, users, coord, startTime, endTime);
         addNewContactsToList(contact);
         graph.addVertex(contact);
+        events.add(contact);
         return contact;
     }
 
     private MovementEvent newMovement(User user, ContactEvent src, ContactEvent dst) {
-        MovementEvent move = new MovementEvent(user, src, dst);
+        MovementEvent move = new MovementEvent(++lastID, user, src, dst);
         movement.add(move);
+        events.add(move);
         log.fine(move.toString());
         graph.addVertex(move);
         log.fine("newMovement inserting movement between " + src.toShortString() + " to " + dst.toShortString());
       //FIXME: vertice not in graph
         log.fine("addEgde([" + dst.toShortString() + "], [" + move.toString() + "])");
-        graph.addEdge(src, move);
+        graph.addEdge(src, move, new CGEdge(++lastID));
         log.fine("addEgde(["+move.toString()+"], [" + dst.toShortString()+"])");
-        graph.addEdge(move, dst);
+        graph.addEdge(move, dst, new CGEdge(++lastID));
         return move;
     }
 
@@ -114,6 +122,17 @@ public class ContactGraph implements Serializable  {
      * @param time
      */
     public void addMutualUserContact(User u, User u2, long time) {
+        addMutualUserContact(u, u2, time, time);
+    }
+
+    /**
+     * Insert the contact between two users either to a fitting existing contact event or create a new event.
+     * @param u
+     * @param u2
+     * @param time
+     * @param starttime exact moment the users got into range, used if a new event is created
+     */
+    public void addMutualUserContact(User u, User u2, long time, double starttime) {
         Coordinate coord = u.getPosition();
         List<User> users = new ArrayList<User>();
         users.add(u);
@@ -129,6 +148,7 @@ public class ContactGraph implements Serializable  {
             // Create new contact event
 
             ContactEvent contact = newContact(users, coord, time, time + 1);
+            contact.setExactStartTime(starttime);
 
             graph.addVertex(contact);
             addNewContactsToList(contact);
@@ -150,6 +170,166 @@ public class ContactGraph implements Serializable  {
         */
     }
 
+    /**
+     * Set the exact moment the current contact between two users ends, as far as it is known.
+     * @param u
+     * @param u2
+     * @param endtime
+     */
+    public void setContactEnd(User u, User u2, double endtime) {
+        ContactEvent prev_u = getPreviousContact(u, (long) endtime);
+        if (null != prev_u && prev_u == getPreviousContact(u2, (long) endtime)) {
+            prev_u.setExactEndTime(endtime);
+        }
+    }
+
+    /** Write the last contact of every user for a checkpoint, it decides if a new contact continues it.
+     * The events follow, written by writeEvents or by the writeJournal calls since resetJournal.
+     * Users are written as their usernumber, in that order, so the same simulation gives the same checkpoint.
+     * @param out
+     */
+    public void writeOpenContacts(DataOutput out) throws IOException {
+        TreeMap<Integer, ContactEvent> open = new TreeMap<Integer, ContactEvent>();
+        for (Map.Entry<User, Stack<ContactEvent>> entry : contactEvents.entrySet())
+            open.put(entry.getKey().getUsernumber(), entry.getValue().peek());
+        out.writeInt(open.size());
+        for (Map.Entry<Integer, ContactEvent> entry : open.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue().getId());
+        }
+    }
+
+    /** Write all events for a checkpoint, in the order they were created with their ids and edges.
+     * @param out
+     */
+    public void writeEvents(DataOutput out) throws IOException {
+        for (CGVertex v : events)
+            writeEvent(out, v);
+    }
+
+    /** Write what changed since the last call: the end times of the contacts that were open then
+     * and the events created since. Only open contacts are ever changed, so the parts written since resetJournal
+     * hold the whole graph, and a checkpoint only has to write what is new.
+     * @param out
+     */
+    public void writeJournal(DataOutput out) throws IOException {
+        for (ContactEvent contact : journaledopen) {
+            out.writeByte(2);
+            out.writeInt(contact.getId());
+            out.writeLong(contact.getEndTime());
+            out.writeDouble(contact.getExactEndTime());
+        }
+        for (int i = journaled; i < events.size(); i++)
+            writeEvent(out, events.get(i));
+        journaled = events.size();
+        journaledopen = getOpenContacts();
+    }
+
+    /** Start a new journal, the next writeJournal writes all events. */
+    public void resetJournal() {
+        journaled = 0;
+        journaledopen = new ArrayList<ContactEvent>();
+    }
+
+    private void writeEvent(DataOutput out, CGVertex v) throws IOException {
+        if (v instanceof ContactEvent) {
+            ContactEvent contact = (ContactEvent) v;
+            out.writeByte(0);
+            out.writeInt(contact.getId());
+            out.writeInt(contact.getUsers().size());
+            for (User u : contact.getUsers())
+                out.writeInt(u.getUsernumber());
+            out.writeDouble(contact.getCoord().getLat());
+            out.writeDouble(contact.getCoord().getLon());
+            out.writeLong(contact.getStartTime());
+            out.writeLong(contact.getEndTime());
+            out.writeDouble(contact.getExactStartTime());
+            out.writeDouble(contact.getExactEndTime());
+        } else {
+            MovementEvent move = (MovementEvent) v;
+            out.writeByte(1);
+            out.writeInt(move.getId());
+            out.writeInt(move.getUser().getUsernumber());
+            out.writeInt(move.getSrc().getId());
+            out.writeInt(move.getDst().getId());
+            out.writeInt(graph.getEdge(move.getSrc(), move).getId());
+            out.writeInt(graph.getEdge(move, move.getDst()).getId());
+        }
+    }
+
+    /** @return the last contact of every user, each once and ordered by id */
+    private List<ContactEvent> getOpenContacts() {
+        TreeMap<Integer, ContactEvent> open = new TreeMap<Integer, ContactEvent>();
+        for (Stack<ContactEvent> userEvents : contactEvents.values())
+            open.put(userEvents.peek().getId(), userEvents.peek());
+        return new ArrayList<ContactEvent>(open.values());
+    }
+
+    /** Read a graph written by writeOpenContacts followed by the events, up to the end of the input.
+     * The graph counts as journaled, so checkpoints continuing the same journal only write what changes after it.
+     * @param in
+     * @param users the users of the simulation, ordered by usernumber
+     * @return
+     */
+    public static ContactGraph readCheckpoint(DataInputStream in, List<User> users) throws IOException {
+        ContactGraph cg = new ContactGraph();
+        HashMap<Integer, ContactEvent> contacts = new HashMap<Integer, ContactEvent>();
+        int count = in.readInt();
+        int[] open = new int[2 * count];
+        for (int i = 0; i < open.length; i++)
+            open[i] = in.readInt();
+        for (int kind = in.read(); kind >= 0; kind = in.read()) {
+            int id = in.readInt();
+            if (kind == 0) {
+                int n = in.readInt();
+                List<User> participants = new ArrayList<User>(n);
+                for (int i2 = 0; i2 < n; i2++)
+                    participants.add(users.get(in.readInt() - 1));
+                Coordinate coord = new Coordinate(in.readDouble(), in.readDouble());
+                ContactEvent contact = new ContactEvent(id, participants, coord, in.readLong(), in.readLong());
+                contact.setExactStartTime(in.readDouble());
+                contact.setExactEndTime(in.readDouble());
+                contacts.put(id, contact);
+                cg.events.add(contact);
+                cg.graph.addVertex(contact);
+                cg.lastID = Math.max(cg.lastID, id);
+            } else if (kind == 1) {
+                User user = users.get(in.readInt() - 1);
+                ContactEvent src = contacts.get(in.readInt());
+                ContactEvent dst = contacts.get(in.readInt());
+                MovementEvent move = new MovementEvent(id, user, src, dst);
+                cg.movement.add(move);
+                cg.events.add(move);
+                cg.graph.addVertex(move);
+                CGEdge in_edge = new CGEdge(in.readInt());
+                CGEdge out_edge = new CGEdge(in.readInt());
+                cg.graph.addEdge(src, move, in_edge);
+                cg.graph.addEdge(move, dst, out_edge);
+                // later elements get higher ids
+                cg.lastID = Math.max(cg.lastID, out_edge.getId());
+            } else if (kind == 2) {
+                ContactEvent contact = contacts.get(id);
+                if (contact == null)
+                    throw new IOException("end times of unknown contact " + id);
+                contact.setEndTime(in.readLong());
+                contact.setExactEndTime(in.readDouble());
+            } else {
+                throw new IOException("unknown event kind " + kind);
+            }
+        }
+        for (int i = 0; i < open.length; i += 2) {
+            ContactEvent contact = contacts.get(open[i + 1]);
+            if (contact == null)
+                throw new IOException("open contact " + open[i + 1] + " is missing");
+            Stack<ContactEvent> l = new Stack<>();
+            l.push(contact);
+            cg.contactEvents.put(users.get(open[i] - 1), l);
+        }
+        cg.journaled = cg.events.size();
+        cg.journaledopen = cg.getOpenContacts();
+        return cg;
+    }
+
     /** Insert contact event into list of all participating users.
      *
      * @param contact
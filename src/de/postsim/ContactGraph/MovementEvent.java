@@ -15,13 +15,27 @@ public class MovementEvent extends CGVertex {
     private final ContactEvent src;
     private final ContactEvent dst;
 
-    public MovementEvent(User user, ContactEvent src, ContactEvent dst) {
-        super();
+    /** Movement event with an id given by its contact graph.
+     */
+    public MovementEvent(int id, User user, ContactEvent src, ContactEvent dst) {
+        super(id);
         this.user = user;
         this.src = src;
         this.dst = dst;
     }
 
+    public User getUser() {
+        return user;
+    }
+
+    public ContactEvent getSrc() {
+        return src;
+    }
+
+    public ContactEvent getDst() {
+        return dst;
+    }
+
     public Map<String, String> getComponentAttributes() {
         Map<String,String> attrs = new HashMap<String, String>();
         attrs.put("user",Integer.toString(this.user.getUsernumber()));
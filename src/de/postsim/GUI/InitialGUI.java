@@ -10,7 +10,8 @@ import java.util.Random;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 
-import de.postsim.IO.OSMXMLParser;
+import de.postsim.IO.CheckpointFile;
+import de.postsim.IO.SimMapFile;
 import de.postsim.Objects.SimMap;
 import de.postsim.Simulation.MapSimulation;
 
@@ -22,6 +23,9 @@ import de.postsim.Simulation.MapSimulation;
 public class InitialGUI
 {
     private static boolean withGUI = false;
+    private static final long MAX_CYCLES = 604;             // cycles after which the simulation stops
+    private static final long CHECKPOINT_INTERVAL = 60;     // cycles between two checkpoints, has to be less than MAX_CYCLES
+    private static final int STEP_THREADS = 0;              // threads of the parallel step, 0 to step sequentially
 
 
     public static void main(String[] args)
@@ -36,14 +40,35 @@ public class InitialGUI
         }
         String mapname = mapfile.getName().split("\\.")[0];
 
-        // parsing the .osm file and building our own map with it
-        OSMXMLParser parser = new OSMXMLParser(mapfile);
-        SimMap map = parser.parseNewMap(rgen);
+        // parsing the .osm file and building our own map with it, or reading the map preprocessed from a previous run
+        SimMap map = null;
+        try {
+            map = SimMapFile.load(mapfile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
 
 
-        // constructing a simulation with our chosen parameters
-        MapSimulation sim = new MapSimulation(map, rgen, 100, 250, 10,
-                MapSimulation.CLUSTER_WAYPOINT, 10, mapname);
+        // constructing a simulation with our chosen parameters, or continuing an interrupted one from its last checkpoint
+        File checkpointfile = new File(mapname + ".checkpoint");
+        MapSimulation sim = null;
+        try {
+            if (checkpointfile.exists()) {
+                sim = MapSimulation.restore(map, checkpointfile);
+            } else {
+                sim = new MapSimulation(map, rgen, 100, 250, 10,
+                        MapSimulation.CLUSTER_WAYPOINT, 10, mapname);
+                // a restored simulation steps like the one the checkpoint was taken of
+                if (STEP_THREADS > 0) {
+                    sim.setParallelStep(STEP_THREADS, 4);
+                }
+            }
+            sim.setCheckpointing(checkpointfile, CHECKPOINT_INTERVAL);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
 
         if(withGUI) {
             // building our MapGUI Applet
@@ -66,8 +91,9 @@ public class InitialGUI
 
         //main simulation Loop
         // start the simulation and update the GUI until we have not delivered all of our pakets
-        while (sim.getUnDeliveredpakets().size() > 0 && sim.getCycles() < 604){//800) {
-            sim.simulation_step();
+        while (sim.getUnDeliveredpakets().size() > 0 && sim.getCycles() < MAX_CYCLES){//800) {
+            // skips the checks for cycles in which nobody can get into range, same results as simulation_step
+            sim.simulation_advance(MAX_CYCLES - sim.getCycles());
             // uncomment this for live visuals
             /*  applet.repaint();
             	try {
@@ -76,6 +102,14 @@ public class InitialGUI
 					e1.printStackTrace();
 				} */
         }
+        // the run is complete, so the next one starts from scratch again
+        try {
+            sim.stopCheckpointing();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        CheckpointFile.delete(checkpointfile);
+
         // write the final stats into our logging file
         sim.writeFinalStats();
         try {
@@ -84,6 +118,7 @@ public class InitialGUI
             // tell that writing failed
             e.printStackTrace();
         }
+        sim.close();
         // display a heatmap in the applet
         if(withGUI && null != applet) {
             applet.setHeatmap(true);
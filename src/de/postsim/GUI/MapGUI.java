@@ -5,6 +5,7 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JApplet;
 
@@ -14,6 +15,7 @@ import de.postsim.Objects.SimMap;
 import de.postsim.Objects.SimNode;
 import de.postsim.Objects.SimWay;
 import de.postsim.Objects.User;
+import de.postsim.Simulation.MapOverlay;
 import de.postsim.Simulation.MapSimulation;
 
 /**
@@ -79,10 +81,10 @@ public class MapGUI extends JApplet {
 
 	private void paintHeatmap(Graphics2D g2) {
 		// drawing the ways
-		ArrayList<SimWay> ways = new ArrayList<SimWay>();
-		ways = map.getWays();
-		int minvisited = map.getMinTimesVisited();
-		int maxvisited = map.getMaxTimesVisited();
+		List<SimWay> ways = map.getWays();
+		MapOverlay overlay = sim.getOverlay();
+		int minvisited = overlay.getMinTimesVisited();
+		int maxvisited = overlay.getMaxTimesVisited();
 		// iterating through all ways
 		for (int i = 0; i < ways.size(); i++) {
 			SimWay w = ways.get(i);
@@ -96,7 +98,7 @@ public class MapGUI extends JApplet {
 				Coordinate b = getGUIcoordinate(node2.getPosition());
 
 				// create appropriate color for ways
-				float meanvisited = ((node1.getTimesvisited() + node2.getTimesvisited())/2);
+				float meanvisited = ((overlay.getTimesvisited(node1) + overlay.getTimesvisited(node2))/2);
 				int red = (int) ((meanvisited-minvisited)/(maxvisited-minvisited)*350); // 350 for faster transition into red spectrum
 				if (red > 255) {
 					red = 255;
@@ -116,8 +118,7 @@ public class MapGUI extends JApplet {
 
 	private void paintWays(Graphics2D g2) {
 		g2.setPaint(Color.gray);
-		ArrayList<SimWay> ways = new ArrayList<SimWay>();
-		ways = map.getWays();
+		List<SimWay> ways = map.getWays();
 		// iterating through all ways
 		for (int i = 0; i < ways.size(); i++) {
 			SimWay w = ways.get(i);
@@ -1,47 +1,325 @@
 package de.postsim.IO;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.logging.Logger;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import com.opencsv.CSVWriter;
 
 /**
- * Class used to write strings into a CSV-file
+ * Class used to write strings into a CSV-file.
+ * The rows are handed to a background thread through a bounded queue and written into a file that stays open,
+ * so logging doesn't open the file for every event. If the queue is full, write waits until the thread caught up.
+ * The file is flushed when nothing was logged for a second, by flush and by close.
+ * Rows still waiting when the program ends are written by a shutdown hook.
+ * If the file can't be written, write, flush and close throw an UncheckedIOException from then on
  * @author Nils Stahlhut
  *
  */
 public class CSVLogging  {
-	
+
+	private static final int QUEUE_SIZE = 1024;						// rows waiting to be written at most
+	private static final long IDLE_FLUSH = 1000;					// ms without rows after which the file is flushed
+	private static final String[] FLUSH = new String[0];			// asks the writer thread to flush
+	private static final String[] CLOSE = new String[0];			// asks the writer thread to close the file and stop
+	private static final String[] LENGTH = new String[0];			// asks the writer thread for the length of the file
+
 	String csv;
-	
+	private final BlockingQueue<String[]> rows = new ArrayBlockingQueue<String[]>(QUEUE_SIZE);
+	private final Object flushed = new Object();					// notified when the writer thread is done with a FLUSH row
+	private Thread writer;
+	private final Thread shutdownhook = new Thread(new Runnable() {	// writes what is left if the log is never closed
+		public void run() {
+			stop();
+		}
+	});
+	private final Queue<FutureTask<Long>> lengths = new ConcurrentLinkedQueue<FutureTask<Long>>();
+																	// answers to the LENGTH rows in the queue, in the same order
+	private long flushesrequested;									// FLUSH rows put into the queue
+	private long flushesdone;										// FLUSH rows the writer thread is done with, guarded by flushed
+	private volatile IOException failure;							// why the file couldn't be written, rows after it are lost
+
 	/**
 	 * creates a CSVLogging object which can write into the specified filename
 	 * @param filename
 	 */
 	public CSVLogging(String filename) {
 		this.csv = filename;
+		start();
 		ArrayList<String[]> data = new ArrayList<String[]>();
 		data.add(new String[] { "Cycle", "Object1", "Object2", "Position", "Event" });
 		data.add(new String[] { "0", "", "", "", "Simulation initialised" });
 		write(data);
 	}
-	
-	
+
+
+	/**
+	 * creates a CSVLogging object which continues a file that was written up to the given length, for a restored simulation.
+	 * Everything written after that length is cut off, so lines logged after the checkpoint are not in the file twice
+	 * @param filename
+	 * @param length
+	 * @throws IOException
+	 */
+	public CSVLogging(String filename, long length) throws IOException {
+		this.csv = filename;
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try {
+			if (file.length() > length) {
+				file.setLength(length);
+			}
+		} finally {
+			file.close();
+		}
+		start();
+	}
+
+
+	/**
+	 * starts the thread writing the rows of the queue into the file
+	 */
+	private void start() {
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeRows();
+			}
+		}, "CSVLogging " + csv);
+		// a simulation that is never closed doesn't keep the program running, the shutdown hook writes its log
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(shutdownhook);
+	}
+
+
+	/**
+	 * waits for the length of the file, see requestLength
+	 * @return the number of bytes written into the CSV file so far, including all rows written before
+	 * @throws IOException if the file couldn't be written
+	 */
+	public long getLength() throws IOException {
+		try {
+			return requestLength().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the length of " + csv, e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (CancellationException e) {
+			throw new IOException("interrupted while asking for the length of " + csv, e);
+		}
+	}
+
+
+	/**
+	 * asks the writer thread for the length of the file once the rows written so far are in it, without waiting for them
+	 * @return the number of bytes written into the CSV file up to now, including all rows written before,
+	 * cancelled if the calling thread was interrupted while asking
+	 */
+	public synchronized Future<Long> requestLength() {
+		FutureTask<Long> length = new FutureTask<Long>(new Callable<Long>() {
+			public Long call() throws IOException {
+				IOException e = failure;
+				if (e != null) {
+					throw e;
+				}
+				return new File(csv).length();
+			}
+		});
+		if (writer == null) {
+			// closed, everything is in the file
+			length.run();
+		}
+		else {
+			lengths.add(length);
+			try {
+				rows.put(LENGTH);
+			} catch (InterruptedException e) {
+				// without its row nobody would answer it
+				lengths.remove(length);
+				length.cancel(false);
+				Thread.currentThread().interrupt();
+			}
+		}
+		return length;
+	}
+
+
 	/**
 	 * write the data into the CSV file
 	 * @param data
+	 * @throws UncheckedIOException if the file couldn't be written
+	 */
+	public synchronized void write(ArrayList<String[]> data){
+		if (writer == null) {
+			throw new IllegalStateException("log " + csv + " is closed");
+		}
+		checkFailure();
+		// the rows of one call stay together, as write is synchronized
+		for (int i = 0; i < data.size(); i++) {
+			put(data.get(i));
+		}
+	}
+
+
+	/**
+	 * waits until all rows written so far are in the file
+	 * @throws UncheckedIOException if the file couldn't be written
+	 */
+	public void flush() {
+		long request;
+		synchronized (this) {
+			if (writer == null) {
+				checkFailure();
+				return;
+			}
+			request = ++flushesrequested;
+			put(FLUSH);
+		}
+		synchronized (flushed) {
+			while (flushesdone < request) {
+				try {
+					flushed.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		checkFailure();
+	}
+
+
+	/**
+	 * writes the remaining rows, closes the file and stops the writer thread
+	 * @throws UncheckedIOException if the file couldn't be written
+	 */
+	public void close() {
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownhook);
+		} catch (IllegalStateException e) {
+			// the program is ending, the shutdown hook stops the writer
+			return;
+		}
+		stop();
+		checkFailure();
+	}
+
+
+	private void checkFailure() {
+		IOException e = failure;
+		if (e != null) {
+			throw new UncheckedIOException("log " + csv + " couldn't be written", e);
+		}
+	}
+
+
+	private synchronized void stop() {
+		if (writer == null) {
+			return;
+		}
+		put(CLOSE);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+	}
+
+
+	/**
+	 * puts a row into the queue, waiting while it is full
+	 * @param row
+	 */
+	private void put(String[] row) {
+		try {
+			rows.put(row);
+		} catch (InterruptedException e) {
+			// the row is lost, but the interrupt is kept for the caller
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * body of the writer thread
 	 */
-	public void write(ArrayList<String[]> data){	
+	private void writeRows() {
+		CSVWriter out = null;
 		try {
-			FileWriter file;
-			file = new FileWriter(csv, true);
-			CSVWriter writer = new CSVWriter(file);
-			writer.writeAll(data);
-			writer.close();
+			out = new CSVWriter(new BufferedWriter(new FileWriter(csv, true), 1 << 16));
 		} catch (IOException e) {
-			e.printStackTrace();
+			// the rows are still taken from the queue, so nobody waits for the thread
+			failure = e;
+		}
+		boolean unflushed = false;										// rows were written since the last flush
+		try {
+			while (true) {
+				String[] row = rows.poll(IDLE_FLUSH, TimeUnit.MILLISECONDS);
+				if (row == LENGTH) {
+					if (unflushed) {
+						flush(out);
+						unflushed = false;
+					}
+					lengths.remove().run();
+				}
+				else if (row == null || row == FLUSH) {
+					if (unflushed) {
+						flush(out);
+						unflushed = false;
+					}
+					if (row == FLUSH) {
+						synchronized (flushed) {
+							flushesdone++;
+							flushed.notifyAll();
+						}
+					}
+				}
+				else if (row == CLOSE) {
+					break;
+				}
+				else if (out != null) {
+					out.writeNext(row);
+					unflushed = true;
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped without close, the file is closed below
+		}
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		// nobody waits forever for a length asked for while the thread stopped
+		for (FutureTask<Long> length = lengths.poll(); length != null; length = lengths.poll()) {
+			length.run();
+		}
+	}
+
+
+	private void flush(CSVWriter out) {
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				failure = e;
+			}
 		}
 	}
 }
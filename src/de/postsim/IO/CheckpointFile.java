@@ -0,0 +1,262 @@
+package de.postsim.IO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File holding the latest checkpoint of a simulation. Checkpoints are written by a background thread,
+ * so the simulation only waits for copying its state, not for the disk. A checkpoint is written into a temporary file
+ * next to the checkpoint file first and then renamed over it, so after a crash the file holds a whole checkpoint,
+ * the new or the previous one. If checkpoints come faster than they can be written, only the newest one is written.
+ * <p>
+ * What only grows, like the contact graph, goes into a journal file next to the checkpoint file instead:
+ * every checkpoint appends the part that is new since the previous one, and the checkpoint file records how much
+ * of the journal belongs to it. Both files are compressed with gzip, which is done by the background thread as well.
+ */
+public class CheckpointFile {
+
+	private final File file;
+	private final File temporaryfile;
+	private final File journalfile;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			// a simulation that is never closed doesn't keep the program running, the previous checkpoint stays whole
+			Thread thread = new Thread(r, "CheckpointFile");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final AtomicLong written = new AtomicLong();	// checkpoints handed to write, only the newest one is written
+	private volatile IOException failure;					// why the last write failed
+	private volatile boolean broken;						// a part of the journal is missing, no checkpoint can refer to it
+	private boolean started;								// the journal was cut to journallength, only used by the writer thread
+	private long journallength;								// bytes of the journal the checkpoint in the file refers to
+
+	/**
+	 * @param file
+	 */
+	public CheckpointFile(File file) {
+		this.file = file;
+		this.temporaryfile = new File(file.getPath() + ".tmp");
+		this.journalfile = new File(file.getPath() + ".graph");
+	}
+
+
+	/**
+	 * @return the file holding the checkpoint
+	 */
+	public File getFile() {
+		return file;
+	}
+
+
+	/**
+	 * writes a checkpoint in the background. The journal part is always written, the checkpoint is skipped
+	 * if a newer one is waiting, as the newer one refers to this part of the journal as well.
+	 * Unless the checkpoint in the file was read with this object, the first write replaces the file and the journal.
+	 * @param checkpoint called by the background thread to get the checkpoint, the journal is added to it when reading
+	 * @param journal what is new since the previous checkpoint, must not be changed afterwards
+	 * @throws IOException if writing an earlier checkpoint failed
+	 */
+	public void write(final Callable<byte[]> checkpoint, final byte[] journal) throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			if (!broken) {
+				failure = null;
+			}
+			throw e;
+		}
+		final long number = written.incrementAndGet();
+		writer.execute(new Runnable() {
+			public void run() {
+				write(number, checkpoint, journal);
+			}
+		});
+	}
+
+
+	private void write(long number, Callable<byte[]> checkpoint, byte[] journal) {
+		if (broken) {
+			return;
+		}
+		try {
+			if (!started) {
+				if (journallength == 0) {
+					// a new series, a checkpoint left from before must not be read with the new journal
+					Files.deleteIfExists(file.toPath());
+				}
+				RandomAccessFile cut = new RandomAccessFile(journalfile, "rw");
+				try {
+					cut.setLength(journallength);
+				} finally {
+					cut.close();
+				}
+				started = true;
+			}
+			FileOutputStream out = new FileOutputStream(journalfile, true);
+			try {
+				GZIPOutputStream compressed = new GZIPOutputStream(new BufferedOutputStream(out));
+				compressed.write(journal);
+				compressed.finish();
+				compressed.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			failure = e;
+			broken = true;
+			return;
+		}
+		if (number != written.get()) {
+			return;
+		}
+		try {
+			byte[] bytes = checkpoint.call();
+			long length = journalfile.length();
+			FileOutputStream out = new FileOutputStream(temporaryfile);
+			try {
+				GZIPOutputStream compressed = new GZIPOutputStream(new BufferedOutputStream(out));
+				DataOutputStream data = new DataOutputStream(compressed);
+				data.writeLong(length);
+				data.write(bytes);
+				data.flush();
+				compressed.finish();
+				compressed.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			Files.move(temporaryfile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			journallength = length;
+		} catch (IOException e) {
+			failure = e;
+		} catch (Exception e) {
+			failure = new IOException("couldn't get the checkpoint for " + file, e);
+		}
+	}
+
+
+	/**
+	 * waits until the last checkpoint is written and stops the background thread
+	 * @throws IOException if writing a checkpoint failed
+	 */
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+
+	/**
+	 * reads the checkpoint in the file. Checkpoints written with this object afterwards continue its journal,
+	 * dropping what was appended to the journal after it.
+	 * @return the checkpoint followed by the part of the journal it refers to
+	 * @throws IOException
+	 */
+	public InputStream read() throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file), 65536));
+		InputStream journal;
+		try {
+			journallength = in.readLong();
+			if (journallength == 0) {
+				journal = new ByteArrayInputStream(new byte[0]);
+			}
+			else {
+				journal = new GZIPInputStream(new LimitedInputStream(new FileInputStream(journalfile), journallength), 65536);
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new BufferedInputStream(new SequenceInputStream(in, journal), 65536);
+	}
+
+
+	/**
+	 * deletes a checkpoint file and its journal
+	 * @param file
+	 */
+	public static void delete(File file) {
+		file.delete();
+		new File(file.getPath() + ".graph").delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+
+	/**
+	 * Stream ending after a number of bytes, GZIPInputStream asks available() to find out if another part follows.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
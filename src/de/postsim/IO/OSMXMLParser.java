@@ -3,7 +3,6 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Random;
 
 
 import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
@@ -14,28 +13,32 @@ import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.core.task.v0_6.RunnableSource;
 import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.openstreetmap.osmosis.pbf2.v0_6.PbfReader;
 import org.openstreetmap.osmosis.xml.common.CompressionMethod;
 import org.openstreetmap.osmosis.xml.v0_6.XmlReader;
 
 import de.postsim.Objects.Coordinate;
+import de.postsim.Objects.LongIntHashMap;
 import de.postsim.Objects.SimMap;
 import de.postsim.Objects.SimNode;
 import de.postsim.Objects.SimWay;
 
 /**
- * Parses as XML exported OpenStreetMap Data through the osmosis library
+ * Parses as XML or PBF exported OpenStreetMap Data through the osmosis library
  * @author Nils Stahlhut
  *
  */
 public class OSMXMLParser {
 	
 	private ArrayList<SimNode> nodes = new ArrayList<SimNode>(); // list of all nodes in the file
+	private LongIntHashMap nodeindex = new LongIntHashMap(1 << 16); // position of every node id in the nodes list
 	private ArrayList<SimWay> ways = new ArrayList<SimWay>(); 	// list of all highways in the file
 	// the dimensions for this file
 	private double topBound;
 	private double bottomBound;
 	private double rightBound;
 	private double leftBound;
+	private boolean boundfound = false;	// did the file contain its bounds
 
 	File file;
 	Sink sinkImplementation = new Sink() {
@@ -43,6 +46,7 @@ public class OSMXMLParser {
 	    	// processes all entries in the file and handles them depending on their type
 	        Entity entity = entityContainer.getEntity();
 	        if (entity instanceof Bound) {
+	        	boundfound = true;
 	        	topBound = ((Bound) entity).getTop();
 	        	bottomBound = ((Bound) entity).getBottom();
 	        	rightBound = ((Bound) entity).getRight();
@@ -50,18 +54,17 @@ public class OSMXMLParser {
 	        } else if (entity instanceof Node) {
 	        	Coordinate position = new Coordinate(((Node) entity).getLatitude(), ((Node) entity).getLongitude());
 	        	SimNode node = new SimNode(((Node) entity).getId(), position);
+	        	nodeindex.put(node.getId(), nodes.size());
 	        	nodes.add(node);
 	        } else if (entity instanceof Way) {
 	        	ArrayList<SimNode> waynodes = new ArrayList<SimNode>();
 	        	// iterate through the way to get the corresponding nodeids and use them to get SimNode objects for the way
 	        	for (int i = 0; i < ((Way) entity).getWayNodes().size(); i++) {
+	        		int index = nodeindex.get(((Way) entity).getWayNodes().get(i).getNodeId());
 	        		SimNode result = null;
-	        		for (int i2 = 0; i2 < nodes.size(); i2++) {
-	        			SimNode node = nodes.get(i2);
-	        			if (((Way) entity).getWayNodes().get(i).getNodeId() == node.getId()) {
-	        				result = node;
-	        			}
-		        	}
+	        		if (index >= 0) {
+	        			result = nodes.get(index);
+	        		}
 	        		waynodes.add(result);
 	        	}
 	        	SimWay way = new SimWay(((Way) entity).getId(), waynodes);
@@ -92,20 +95,26 @@ public class OSMXMLParser {
 	}
 
 	/**
-	 * this method is used to parse an .osm file with osmosis and create a custom SimMap object out of it
+	 * this method is used to parse an .osm or .osm.pbf file with osmosis and create a custom SimMap object out of it.
+	 * The blocks of a .pbf file are decoded in parallel by one worker thread per processor, 
+	 * the entities still reach our sink one after another and in the order of the file
 	 * @return a SimMap that was parsed out of the given file
 	 */
-	public SimMap parseNewMap(Random rgen) {
-		CompressionMethod compression = CompressionMethod.None;
-
-		if (file.getName().endsWith(".gz")) {
-			compression = CompressionMethod.GZip;
-		} else if (file.getName().endsWith(".bz2")) {
-		    compression = CompressionMethod.BZip2;
-		} 
-
+	public SimMap parseNewMap() {
 		RunnableSource reader;
-		reader = new XmlReader(file, false, compression);
+		if (file.getName().endsWith(".pbf")) {
+			reader = new PbfReader(file, Runtime.getRuntime().availableProcessors());
+		}
+		else {
+			CompressionMethod compression = CompressionMethod.None;
+
+			if (file.getName().endsWith(".gz")) {
+				compression = CompressionMethod.GZip;
+			} else if (file.getName().endsWith(".bz2")) {
+			    compression = CompressionMethod.BZip2;
+			} 
+			reader = new XmlReader(file, false, compression);
+		}
 		reader.setSink(sinkImplementation);
 
 		Thread readerThread = new Thread(reader);
@@ -118,12 +127,40 @@ public class OSMXMLParser {
 		        // do nothing
 		    }
 		}
+		// extracts without a bounding box in their header are bounded by their nodes
+		if (!boundfound) {
+			setBoundsFromNodes();
+		}
+		
 		// create SimMap and return it
-		SimMap map = new SimMap(rgen, ways, topBound, bottomBound, rightBound, leftBound);
+		SimMap map = new SimMap(ways, topBound, bottomBound, rightBound, leftBound);
 		System.out.println("Map extracted");
 		System.out.println("Dimensions:");
 		System.out.println("Heigth: " + new Coordinate(topBound,rightBound).getDistance(new Coordinate(bottomBound,rightBound)) + "m");
 		System.out.println("Width: " + new Coordinate(topBound,leftBound).getDistance(new Coordinate(topBound,rightBound)) + "m");
 		return map;
 	}
+	
+	
+	/**
+	 * sets the bounds of the map to the smallest box around all nodes of a highway
+	 */
+	private void setBoundsFromNodes() {
+		topBound = -90;
+		bottomBound = 90;
+		rightBound = -180;
+		leftBound = 180;
+		for (int i = 0; i < ways.size(); i++) {
+			ArrayList<SimNode> waynodes = ways.get(i).getNodes();
+			for (int i2 = 0; i2 < waynodes.size(); i2++) {
+				SimNode node = waynodes.get(i2);
+				if (node != null) {
+					topBound = Math.max(topBound, node.getPosition().getLat());
+					bottomBound = Math.min(bottomBound, node.getPosition().getLat());
+					rightBound = Math.max(rightBound, node.getPosition().getLon());
+					leftBound = Math.min(leftBound, node.getPosition().getLon());
+				}
+			}
+		}
+	}
 }
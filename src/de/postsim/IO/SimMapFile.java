@@ -0,0 +1,260 @@
+package de.postsim.IO;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.postsim.Objects.Coordinate;
+import de.postsim.Objects.SimMap;
+import de.postsim.Objects.SimNode;
+import de.postsim.Objects.SimWay;
+
+/**
+ * Compact binary format for an already built SimMap, so a map only has to be parsed out of an OpenStreetMap file once.
+ * The file holds the bounds, the node ids and positions, the road graph in compressed sparse row form,
+ * the nodes used as random nodes and the ways. It is read through a memory-mapped file, so concurrent runs
+ * on the same map share the file in the page cache. Every read copies the arrays into the heap though,
+ * runs in one JVM that want to share them have to share the SimMap, like SweepRunner does.
+ * The file is written under a temporary name and renamed, so other runs never see a half written file.
+ *
+ * Layout (big endian): magic, version, the four bounds, the numbers of nodes, edges, random nodes, ways and way nodes,
+ * followed by the arrays node ids, latitudes, longitudes, edge offsets, edge targets, edge lengths,
+ * random node indices, way ids, way offsets and way node indices.
+ */
+public class SimMapFile {
+
+	public static final String EXTENSION = ".simmap";
+	private static final int MAGIC = 0x534d4150;		// "SMAP"
+	private static final int VERSION = 2;
+
+	private static final Logger log = Logger.getLogger(SimMapFile.class.getName());
+
+
+	/**
+	 * loads a map from a file. Files ending with .simmap are read directly. For OpenStreetMap files
+	 * a .simmap file next to it is used if it is newer and of this version, otherwise the map is parsed
+	 * and the .simmap file is written
+	 * @param mapfile
+	 * @return
+	 * @throws IOException
+	 */
+	public static SimMap load(File mapfile) throws IOException {
+		if (mapfile.getName().endsWith(EXTENSION)) {
+			return read(mapfile);
+		}
+		File binaryfile = new File(mapfile.getParentFile(), mapfile.getName().split("\\.")[0] + EXTENSION);
+		if (binaryfile.exists() && binaryfile.lastModified() >= mapfile.lastModified() && isCurrentVersion(binaryfile)) {
+			return read(binaryfile);
+		}
+		SimMap map = new OSMXMLParser(mapfile).parseNewMap();
+		try {
+			write(map, binaryfile);
+		} catch (IOException e) {
+			// the map can still be used, it is only parsed again next time
+			log.log(Level.WARNING, "could not write " + binaryfile, e);
+		}
+		return map;
+	}
+
+
+	/**
+	 * writes a map into a file. It is written into a temporary file next to it first, which then replaces the file
+	 * @param map
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(SimMap map, File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		// each writer has its own temporary file, so runs writing the same map at once don't mix their files
+		File temporaryfile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			FileOutputStream stream = new FileOutputStream(temporaryfile);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+				writeMap(map, out);
+				out.flush();
+				stream.getFD().sync();
+			} finally {
+				stream.close();
+			}
+			Files.move(temporaryfile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporaryfile.delete();
+		}
+	}
+
+
+	private static void writeMap(SimMap map, DataOutputStream out) throws IOException {
+		int n = map.getNodeCount();
+		int[] offsets = map.getEdgeOffsets();
+		int[] targets = map.getEdgeTargets();
+		double[] lengths = map.getEdgeLengths();
+		List<SimNode> randomnodes = map.getRandomnodes();
+		List<SimWay> ways = map.getWays();
+		int waynodes = 0;
+		for (int i = 0; i < ways.size(); i++) {
+			waynodes += ways.get(i).getNodes().size();
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeDouble(map.getTopBound());
+		out.writeDouble(map.getBottomBound());
+		out.writeDouble(map.getRightBound());
+		out.writeDouble(map.getLeftBound());
+		out.writeInt(n);
+		out.writeInt(targets.length);
+		out.writeInt(randomnodes.size());
+		out.writeInt(ways.size());
+		out.writeInt(waynodes);
+		for (int i = 0; i < n; i++) {
+			out.writeLong(map.getNodeByIndex(i).getId());
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeDouble(map.getNodeByIndex(i).getPosition().getLat());
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeDouble(map.getNodeByIndex(i).getPosition().getLon());
+		}
+		for (int i = 0; i <= n; i++) {
+			out.writeInt(offsets[i]);
+		}
+		for (int i = 0; i < targets.length; i++) {
+			out.writeInt(targets[i]);
+		}
+		for (int i = 0; i < lengths.length; i++) {
+			out.writeDouble(lengths[i]);
+		}
+		for (int i = 0; i < randomnodes.size(); i++) {
+			out.writeInt(randomnodes.get(i).getIndex());
+		}
+		for (int i = 0; i < ways.size(); i++) {
+			out.writeLong(ways.get(i).getId());
+		}
+		int wayoffset = 0;
+		for (int i = 0; i < ways.size(); i++) {
+			out.writeInt(wayoffset);
+			wayoffset += ways.get(i).getNodes().size();
+		}
+		out.writeInt(wayoffset);
+		for (int i = 0; i < ways.size(); i++) {
+			List<SimNode> nodes = ways.get(i).getNodes();
+			for (int i2 = 0; i2 < nodes.size(); i2++) {
+				// nodes that are not part of the road graph are left out when the way is read again
+				SimNode node = nodes.get(i2);
+				out.writeInt(node == null ? -1 : node.getIndex());
+			}
+		}
+	}
+
+
+	/**
+	 * @param file
+	 * @return true if the file starts like a map file of this version, older files are written again
+	 * @throws IOException
+	 */
+	private static boolean isCurrentVersion(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC && in.readInt() == VERSION;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * reads a map out of a file written by write
+	 * @param file
+	 * @return
+	 * @throws IOException if the file is not a map file of this version
+	 */
+	public static SimMap read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException(file.getName() + " is not a map file of version " + VERSION);
+			}
+			double topBound = buffer.getDouble();
+			double bottomBound = buffer.getDouble();
+			double rightBound = buffer.getDouble();
+			double leftBound = buffer.getDouble();
+			int n = buffer.getInt();
+			int m = buffer.getInt();
+			int r = buffer.getInt();
+			int w = buffer.getInt();
+			int waynodecount = buffer.getInt();
+
+			long[] ids = new long[n];
+			double[] lat = new double[n];
+			double[] lon = new double[n];
+			int[] offsets = new int[n + 1];
+			int[] targets = new int[m];
+			double[] lengths = new double[m];
+			int[] random = new int[r];
+			long[] wayids = new long[w];
+			int[] wayoffsets = new int[w + 1];
+			int[] waynodes = new int[waynodecount];
+			buffer.asLongBuffer().get(ids);
+			buffer.position(buffer.position() + 8 * n);
+			buffer.asDoubleBuffer().get(lat);
+			buffer.position(buffer.position() + 8 * n);
+			buffer.asDoubleBuffer().get(lon);
+			buffer.position(buffer.position() + 8 * n);
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + 4 * (n + 1));
+			buffer.asIntBuffer().get(targets);
+			buffer.position(buffer.position() + 4 * m);
+			buffer.asDoubleBuffer().get(lengths);
+			buffer.position(buffer.position() + 8 * m);
+			buffer.asIntBuffer().get(random);
+			buffer.position(buffer.position() + 4 * r);
+			buffer.asLongBuffer().get(wayids);
+			buffer.position(buffer.position() + 8 * w);
+			buffer.asIntBuffer().get(wayoffsets);
+			buffer.position(buffer.position() + 4 * (w + 1));
+			buffer.asIntBuffer().get(waynodes);
+
+			SimNode[] nodes = new SimNode[n];
+			for (int i = 0; i < n; i++) {
+				nodes[i] = new SimNode(ids[i], new Coordinate(lat[i], lon[i]));
+			}
+			ArrayList<SimNode> randomnodes = new ArrayList<SimNode>(r);
+			for (int i = 0; i < r; i++) {
+				randomnodes.add(nodes[random[i]]);
+			}
+			ArrayList<SimWay> ways = new ArrayList<SimWay>(w);
+			for (int i = 0; i < w; i++) {
+				ArrayList<SimNode> nodelist = new ArrayList<SimNode>(wayoffsets[i + 1] - wayoffsets[i]);
+				for (int i2 = wayoffsets[i]; i2 < wayoffsets[i + 1]; i2++) {
+					if (waynodes[i2] >= 0) {
+						nodelist.add(nodes[waynodes[i2]]);
+					}
+				}
+				ways.add(new SimWay(wayids[i], nodelist));
+			}
+			return new SimMap(nodes, offsets, targets, lengths, ways, randomnodes,
+					topBound, bottomBound, rightBound, leftBound);
+		} finally {
+			raf.close();
+		}
+	}
+}
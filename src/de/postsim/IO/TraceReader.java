@@ -0,0 +1,271 @@
+package de.postsim.IO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import de.postsim.Objects.Coordinate;
+import de.postsim.Objects.Projection;
+import de.postsim.Objects.SimMap;
+
+/**
+ * Reads the positions of a movement trace one after another, without keeping the trace in memory.
+ * A background thread reads and parses the file ahead in batches, up to a fixed number of batches,
+ * so the simulation doesn't wait for the disk. The positions have to be sorted by time.
+ *
+ * Two formats are read, told apart by the first line:
+ * ONE simulator external movement files, with a header line "minTime maxTime minX maxX minY maxY"
+ * and lines "time id x y" in meters, x growing to the east and y to the north from the bottom left corner of the map,
+ * and CSV files with lines "time,id,lat,lon", where a header line and lines starting with # are skipped.
+ * Times are in seconds, ids are integers. Files are read as UTF-8, files ending with .gz are unpacked while reading.
+ */
+public class TraceReader {
+
+	private static final int BATCH_SIZE = 4096;					// positions parsed at once
+	private static final int READ_AHEAD = 16;					// batches waiting for the simulation at most
+
+	private final File file;
+	private final Projection projection;						// converts the meters of ONE traces
+	private final double originx;								// bottom left corner of the map on the plane
+	private final double originy;
+	private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<Batch>(READ_AHEAD);
+	private final Thread reader;
+	private volatile IOException failure;						// why reading stopped early
+	private Batch batch;										// batch the current position is in
+	private int cursor = -1;									// index of the current position in the batch
+
+	/**
+	 * opens a trace and starts reading ahead
+	 * @param file
+	 * @param map the map the trace was recorded on
+	 * @throws IOException
+	 */
+	public TraceReader(File file, SimMap map) throws IOException {
+		this.file = file;
+		this.projection = map.getProjection();
+		this.originx = projection.getX(map.getLeftBound());
+		this.originy = projection.getY(map.getBottomBound());
+		InputStream stream = new FileInputStream(file);
+		if (file.getName().endsWith(".gz")) {
+			try {
+				stream = new GZIPInputStream(stream, 1 << 16);
+			} catch (IOException e) {
+				stream.close();
+				throw e;
+			}
+		}
+		final BufferedReader in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), 1 << 16);
+		this.reader = new Thread(new Runnable() {
+			public void run() {
+				readAhead(in);
+			}
+		}, "TraceReader " + file.getName());
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+
+	/**
+	 * moves on to the next position of the trace
+	 * @return false if the trace has ended
+	 * @throws IOException if the trace couldn't be read
+	 */
+	public boolean next() throws IOException {
+		if (batch != null && batch.count == 0) {
+			return false;
+		}
+		cursor++;
+		if (batch == null || cursor == batch.count) {
+			try {
+				batch = batches.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while reading " + file, e);
+			}
+			cursor = 0;
+			if (batch.count == 0) {
+				if (failure != null) {
+					throw failure;
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return the time of the current position in seconds
+	 */
+	public double getTime() {
+		return batch.time[cursor];
+	}
+
+	public int getId() {
+		return batch.id[cursor];
+	}
+
+	public double getLat() {
+		return batch.lat[cursor];
+	}
+
+	public double getLon() {
+		return batch.lon[cursor];
+	}
+
+
+	/**
+	 * stops reading ahead and closes the file
+	 */
+	public void close() {
+		reader.interrupt();
+	}
+
+
+	/**
+	 * reads where every node of a trace is first seen, by reading the whole trace once
+	 * @param file
+	 * @param map
+	 * @return the first position of every id, ordered by id
+	 * @throws IOException
+	 */
+	public static TreeMap<Integer, Coordinate> readStartPositions(File file, SimMap map) throws IOException {
+		TreeMap<Integer, Coordinate> positions = new TreeMap<Integer, Coordinate>();
+		TraceReader trace = new TraceReader(file, map);
+		try {
+			while (trace.next()) {
+				if (!positions.containsKey(trace.getId())) {
+					positions.put(trace.getId(), new Coordinate(trace.getLat(), trace.getLon()));
+				}
+			}
+		} finally {
+			trace.close();
+		}
+		return positions;
+	}
+
+
+	/**
+	 * parses the file into batches until it ends, fails or the reader is closed.
+	 * The last batch is always empty, so next sees the end
+	 * @param in
+	 */
+	private void readAhead(BufferedReader in) {
+		try {
+			try {
+				boolean one = true;								// ONE format, else CSV
+				boolean first = true;
+				double lasttime = Double.NEGATIVE_INFINITY;
+				int linenumber = 0;
+				Batch current = new Batch();
+				String[] fields = new String[6];
+				for (String line = in.readLine(); line != null; line = in.readLine()) {
+					linenumber++;
+					line = line.trim();
+					if (line.length() == 0 || line.charAt(0) == '#') {
+						continue;
+					}
+					if (first) {
+						first = false;
+						one = line.indexOf(',') < 0;
+						// the header of ONE traces has the bounds of the trace, CSV headers have names
+						if ((one && split(line, ' ', fields) == 6) || (!one && !Character.isDigit(line.charAt(0)))) {
+							continue;
+						}
+					}
+					if (split(line, one ? ' ' : ',', fields) != 4) {
+						throw new IOException(file + " line " + linenumber + ": expected 4 values");
+					}
+					try {
+						double time = Double.parseDouble(fields[0]);
+						if (time < lasttime) {
+							throw new IOException(file + " line " + linenumber + ": positions are not sorted by time");
+						}
+						lasttime = time;
+						int n = current.count;
+						current.time[n] = time;
+						current.id[n] = Integer.parseInt(fields[1]);
+						if (one) {
+							current.lat[n] = projection.getLat(originy + Double.parseDouble(fields[3]));
+							current.lon[n] = projection.getLon(originx + Double.parseDouble(fields[2]));
+						}
+						else {
+							current.lat[n] = Double.parseDouble(fields[2]);
+							current.lon[n] = Double.parseDouble(fields[3]);
+						}
+						current.count++;
+					} catch (NumberFormatException e) {
+						throw new IOException(file + " line " + linenumber + ": " + e.getMessage(), e);
+					}
+					if (current.count == BATCH_SIZE) {
+						batches.put(current);
+						current = new Batch();
+					}
+				}
+				if (current.count > 0) {
+					batches.put(current);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			// closed, nobody waits for the end
+			return;
+		}
+		try {
+			batches.put(new Batch());
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+
+	/**
+	 * splits a line at a separator, several spaces count as one
+	 * @param line
+	 * @param separator
+	 * @param fields gets the values
+	 * @return the number of values, even if there are more than fields has room for
+	 */
+	private static int split(String line, char separator, String[] fields) {
+		int count = 0;
+		int start = 0;
+		while (start <= line.length()) {
+			int end = line.indexOf(separator, start);
+			if (end < 0) {
+				end = line.length();
+			}
+			String field = line.substring(start, end).trim();
+			if (separator != ' ' || field.length() > 0) {
+				if (count < fields.length) {
+					fields[count] = field;
+				}
+				count++;
+			}
+			start = end + 1;
+		}
+		return count;
+	}
+
+
+	/**
+	 * positions parsed at once, an empty batch marks the end of the trace
+	 */
+	private static class Batch {
+		private final double[] time = new double[BATCH_SIZE];
+		private final int[] id = new int[BATCH_SIZE];
+		private final double[] lat = new double[BATCH_SIZE];
+		private final double[] lon = new double[BATCH_SIZE];
+		private int count;
+	}
+}
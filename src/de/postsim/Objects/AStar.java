@@ -0,0 +1,135 @@
+package de.postsim.Objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A*-search on the compressed sparse row road graph of a SimMap.
+ * The search state (g-values, predecessors and the open list) is kept in primitive arrays of a workspace
+ * that every thread reuses for all of its searches, so the nodes of the map are never written to.
+ * The open list is a binary heap with decrease-key ordered by fvalue and node id.
+ */
+class AStar {
+
+	private final SimNode[] nodes;				// nodes by their index
+	private final long[] ids;					// ids of the nodes by their index
+	private final int[] edgeoffsets;			// road graph in compressed sparse row form, see SimMap
+	private final int[] edgetargets;
+	private final double[] edgelengths;
+	private final Projection projection;		// for the heuristic, a lower bound of the remaining distance on the plane
+
+	// one workspace per thread, created when a thread searches on this graph for the first time
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * constructs a search on the given road graph
+	 * @param nodes
+	 * @param ids
+	 * @param edgeoffsets
+	 * @param edgetargets
+	 * @param edgelengths
+	 * @param projection the projection the nodes are projected with
+	 */
+	AStar(SimNode[] nodes, long[] ids, int[] edgeoffsets, int[] edgetargets, double[] edgelengths, Projection projection) {
+		this.nodes = nodes;
+		this.ids = ids;
+		this.edgeoffsets = edgeoffsets;
+		this.edgetargets = edgetargets;
+		this.edgelengths = edgelengths;
+		this.projection = projection;
+	}
+
+
+	/**
+	 * get the shortest path between two nodes
+	 * @param startingnode
+	 * @param endnode
+	 * @return the nodes of the path without the startingnode, an empty list if both nodes are the same
+	 * or null if there is no path
+	 */
+	ArrayList<SimNode> getPath(SimNode startingnode, SimNode endnode) {
+		int start = startingnode.getIndex();
+		int end = endnode.getIndex();
+		if (start < 0 || end < 0) {
+			return null;
+		}
+		Workspace w = workspaces.get();
+		w.reset();
+		double targetx = endnode.getX();
+		double targety = endnode.getY();
+
+		w.seen[start] = w.search;
+		w.g[start] = 0;
+		w.parent[start] = -1;
+		w.open.add(start, projection.getLowerBoundDistance(startingnode.getX(), startingnode.getY(), targetx, targety));
+		while (!w.open.isEmpty()) {
+			int current = w.open.poll();
+			if (current == end) {
+				ArrayList<SimNode> path = new ArrayList<SimNode>();
+				for (int n = end; n != start; n = w.parent[n]) {
+					path.add(nodes[n]);
+				}
+				// the path was collected from the end to the start
+				for (int i = 0, j = path.size() - 1; i < j; i++, j--) {
+					SimNode temp = path.get(i);
+					path.set(i, path.get(j));
+					path.set(j, temp);
+				}
+				return path;
+			}
+			w.closed[current] = w.search;
+
+			double g = w.g[current];
+			for (int e = edgeoffsets[current]; e < edgeoffsets[current + 1]; e++) {
+				int neighbour = edgetargets[e];
+				if (w.closed[neighbour] == w.search) {
+					continue;
+				}
+				double gvalue = g + edgelengths[e];
+				if (w.seen[neighbour] != w.search) {
+					w.seen[neighbour] = w.search;
+					w.g[neighbour] = gvalue;
+					w.h[neighbour] = projection.getLowerBoundDistance(nodes[neighbour].getX(), nodes[neighbour].getY(), targetx, targety);
+					w.parent[neighbour] = current;
+					w.open.add(neighbour, gvalue + w.h[neighbour]);
+				}
+				else if (gvalue < w.g[neighbour]) {
+					w.g[neighbour] = gvalue;
+					w.parent[neighbour] = current;
+					w.open.decrease(neighbour, gvalue + w.h[neighbour]);
+				}
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * search state for one thread. Arrays are indexed by node index, entries are only valid
+	 * if the seen (or closed) stamp of the node equals the number of the current search,
+	 * so the arrays never have to be cleared between searches
+	 */
+	private final class Workspace {
+		final double[] g = new double[nodes.length];		// cost of the best known path from the start
+		final double[] h = new double[nodes.length];		// estimated remaining distance to the end
+		final int[] parent = new int[nodes.length];			// predecessor on the best known path
+		final int[] seen = new int[nodes.length];			// search in which the node was reached
+		final int[] closed = new int[nodes.length];			// search in which the node was expanded
+		final NodeHeap open = new NodeHeap(ids);			// open list ordered by fvalue
+		int search;											// number of the current search
+
+		void reset() {
+			open.clear();
+			search++;
+			if (search == Integer.MAX_VALUE) {
+				Arrays.fill(seen, 0);
+				Arrays.fill(closed, 0);
+				search = 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package de.postsim.Objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over the road graph of a SimMap.
+ * The preprocessing contracts the nodes one after another in the order of their importance and adds shortcut edges,
+ * so that the shortest path between two nodes can be found by two small searches that only go upwards in this order.
+ * Shortcuts remember the node they bypass, so the paths of a query can be unpacked into the original road nodes.
+ * The road graph is undirected, so a single upward graph is used for both search directions.
+ */
+class ContractionHierarchy {
+
+	private static final int WITNESS_SETTLE_LIMIT = 60;	// maximum number of nodes a witness search settles
+
+	private final SimNode[] nodes;				// nodes by their index
+	private final long[] ids;					// ids of the nodes by their index
+	private final int[] rank;					// position of every node in the contraction order
+	// upward graph in compressed sparse row form: edges from a node to neighbours with a higher rank,
+	// upmiddle is the node bypassed by a shortcut or -1 for an original road
+	private int[] upoffsets;
+	private int[] uptargets;
+	private double[] uplengths;
+	private int[] upmiddle;
+
+	// one workspace per thread, created when a thread queries the hierarchy for the first time
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * builds the contraction hierarchy for the given road graph
+	 * @param nodes
+	 * @param ids
+	 * @param edgeoffsets
+	 * @param edgetargets
+	 * @param edgelengths
+	 */
+	ContractionHierarchy(SimNode[] nodes, long[] ids, int[] edgeoffsets, int[] edgetargets, double[] edgelengths) {
+		this.nodes = nodes;
+		this.ids = ids;
+		this.rank = new int[nodes.length];
+		new Contraction(edgeoffsets, edgetargets, edgelengths).run();
+	}
+
+
+	/**
+	 * get the shortest path between two nodes
+	 * @param startingnode
+	 * @param endnode
+	 * @return the nodes of the path without the startingnode, an empty list if both nodes are the same
+	 * or null if there is no path
+	 */
+	ArrayList<SimNode> getPath(SimNode startingnode, SimNode endnode) {
+		int start = startingnode.getIndex();
+		int end = endnode.getIndex();
+		if (start < 0 || end < 0) {
+			return null;
+		}
+		if (start == end) {
+			return new ArrayList<SimNode>();
+		}
+		Workspace w = workspaces.get();
+		w.reset();
+		w.forward.reach(start, 0, -1, -1);
+		w.backward.reach(end, 0, -1, -1);
+
+		// alternate between both directions until neither can find a shorter path than the best meeting point
+		double best = Double.POSITIVE_INFINITY;
+		int meeting = -1;
+		while (true) {
+			Search search = w.forward.open.peekKey() <= w.backward.open.peekKey() ? w.forward : w.backward;
+			Search other = search == w.forward ? w.backward : w.forward;
+			if (search.open.peekKey() >= best) {
+				break;
+			}
+			int current = search.open.poll();
+			double distance = search.distance[current];
+			if (other.seen[current] == w.search && distance + other.distance[current] < best) {
+				best = distance + other.distance[current];
+				meeting = current;
+			}
+			for (int e = upoffsets[current]; e < upoffsets[current + 1]; e++) {
+				search.relax(uptargets[e], distance + uplengths[e], current, e);
+			}
+		}
+		if (meeting < 0) {
+			return null;
+		}
+
+		// collect the upward edges from the start to the meeting point and from the meeting point to the end
+		ArrayList<SimNode> path = new ArrayList<SimNode>();
+		int[] edges = w.edges;
+		int count = 0;
+		for (int n = meeting; n != start; n = w.forward.parent[n]) {
+			edges[count++] = w.forward.parentedge[n];
+		}
+		int previous = start;
+		for (int i = count - 1; i >= 0; i--) {
+			int next = uptargets[edges[i]];
+			unpack(previous, next, upmiddle[edges[i]], path);
+			previous = next;
+		}
+		for (int n = meeting; n != end; n = w.backward.parent[n]) {
+			int next = w.backward.parent[n];
+			unpack(n, next, upmiddle[w.backward.parentedge[n]], path);
+		}
+		return path;
+	}
+
+
+	/**
+	 * appends the road nodes of the edge from a to b without a but including b to the path
+	 * @param a
+	 * @param b
+	 * @param middle node bypassed by the edge or -1 for an original road
+	 * @param path
+	 */
+	private void unpack(int a, int b, int middle, ArrayList<SimNode> path) {
+		if (middle < 0) {
+			path.add(nodes[b]);
+			return;
+		}
+		// the middle node has a lower rank than both ends, so both halves are upward edges of the middle node
+		unpack(a, middle, upmiddle[findUpEdge(middle, a)], path);
+		unpack(middle, b, upmiddle[findUpEdge(middle, b)], path);
+	}
+
+
+	/**
+	 * finds the shortest upward edge from a node to a neighbour with a higher rank
+	 */
+	private int findUpEdge(int from, int to) {
+		int result = -1;
+		for (int e = upoffsets[from]; e < upoffsets[from + 1]; e++) {
+			if (uptargets[e] == to && (result < 0 || uplengths[e] < uplengths[result])) {
+				result = e;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * the preprocessing, it keeps the graph with all shortcuts found so far in growing adjacency arrays
+	 */
+	private final class Contraction {
+		private final int n = nodes.length;
+		private int[][] neighbours = new int[n][];		// neighbours of every node, including shortcuts
+		private double[][] lengths = new double[n][];	// length of the edge to each neighbour
+		private int[][] middles = new int[n][];			// node bypassed by the edge to each neighbour or -1
+		private int[] degree = new int[n];				// number of entries in the adjacency arrays of every node
+		private boolean[] contracted = new boolean[n];
+		private int[] contractedneighbours = new int[n];	// number of already contracted neighbours of every node
+		private int[] level = new int[n];				// height of the hierarchy below every node
+		// witness search state
+		private double[] distance = new double[n];
+		private int[] seen = new int[n];
+		private int search;
+		private NodeHeap witnessopen = new NodeHeap(ids);
+		// shortcuts found by the last call of contract
+		private int shortcutcount;
+		private int[] shortcutfrom = new int[16];
+		private int[] shortcutto = new int[16];
+		private double[] shortcutlength = new double[16];
+
+		Contraction(int[] edgeoffsets, int[] edgetargets, double[] edgelengths) {
+			for (int i = 0; i < n; i++) {
+				int d = edgeoffsets[i + 1] - edgeoffsets[i];
+				neighbours[i] = Arrays.copyOfRange(edgetargets, edgeoffsets[i], edgeoffsets[i + 1]);
+				lengths[i] = Arrays.copyOfRange(edgelengths, edgeoffsets[i], edgeoffsets[i + 1]);
+				middles[i] = new int[d];
+				Arrays.fill(middles[i], -1);
+				degree[i] = d;
+			}
+		}
+
+		void run() {
+			NodeHeap queue = new NodeHeap(ids);
+			for (int i = 0; i < n; i++) {
+				queue.add(i, priority(i));
+			}
+			int[] upcount = new int[n];
+			int[][] uptarget = new int[n][];
+			double[][] uplength = new double[n][];
+			int[][] upmid = new int[n][];
+			int nextrank = 0;
+			while (!queue.isEmpty()) {
+				int v = queue.poll();
+				// priorities change while neighbours get contracted, so they are only updated when a node comes up
+				double p = priority(v);
+				if (p > queue.peekKey()) {
+					queue.add(v, p);
+					continue;
+				}
+				rank[v] = nextrank++;
+
+				// every neighbour that is not contracted yet has a higher rank, so these are the upward edges of v
+				uptarget[v] = new int[degree[v]];
+				uplength[v] = new double[degree[v]];
+				upmid[v] = new int[degree[v]];
+				for (int i = 0; i < degree[v]; i++) {
+					int u = neighbours[v][i];
+					if (!contracted[u]) {
+						uptarget[v][upcount[v]] = u;
+						uplength[v][upcount[v]] = lengths[v][i];
+						upmid[v][upcount[v]++] = middles[v][i];
+						contractedneighbours[u]++;
+						level[u] = Math.max(level[u], level[v] + 1);
+					}
+				}
+				contract(v);
+				contracted[v] = true;
+				for (int s = 0; s < shortcutcount; s++) {
+					addEdge(shortcutfrom[s], shortcutto[s], shortcutlength[s], v);
+					addEdge(shortcutto[s], shortcutfrom[s], shortcutlength[s], v);
+				}
+				// the adjacency of a contracted node is not needed anymore
+				neighbours[v] = null;
+				lengths[v] = null;
+				middles[v] = null;
+			}
+
+			// flatten the upward edges into compressed sparse row form
+			upoffsets = new int[n + 1];
+			for (int i = 0; i < n; i++) {
+				upoffsets[i + 1] = upoffsets[i] + upcount[i];
+			}
+			uptargets = new int[upoffsets[n]];
+			uplengths = new double[upoffsets[n]];
+			upmiddle = new int[upoffsets[n]];
+			for (int i = 0; i < n; i++) {
+				System.arraycopy(uptarget[i], 0, uptargets, upoffsets[i], upcount[i]);
+				System.arraycopy(uplength[i], 0, uplengths, upoffsets[i], upcount[i]);
+				System.arraycopy(upmid[i], 0, upmiddle, upoffsets[i], upcount[i]);
+			}
+		}
+
+		/**
+		 * importance of a node: the edge difference of its contraction plus the number of contracted neighbours
+		 * and its level, so that the contraction spreads evenly over the map and the hierarchy stays flat
+		 */
+		private double priority(int v) {
+			contract(v);
+			int remaining = 0;
+			for (int i = 0; i < degree[v]; i++) {
+				if (!contracted[neighbours[v][i]]) {
+					remaining++;
+				}
+			}
+			return shortcutcount - remaining + contractedneighbours[v] + level[v];
+		}
+
+		/**
+		 * finds the shortcuts needed to contract the node v, they are stored in the shortcut arrays
+		 */
+		private void contract(int v) {
+			shortcutcount = 0;
+			for (int i = 0; i < degree[v]; i++) {
+				int u = neighbours[v][i];
+				if (contracted[u]) {
+					continue;
+				}
+				double maxlength = 0;
+				for (int j = 0; j < degree[v]; j++) {
+					if (!contracted[neighbours[v][j]]) {
+						maxlength = Math.max(maxlength, lengths[v][i] + lengths[v][j]);
+					}
+				}
+				witnessSearch(u, v, maxlength);
+				// every pair of neighbours is looked at from both sides, only keep the shortcut once
+				for (int j = 0; j < degree[v]; j++) {
+					int w = neighbours[v][j];
+					if (contracted[w] || w == u || ids[w] < ids[u] || (ids[w] == ids[u] && w < u)) {
+						continue;
+					}
+					double length = lengths[v][i] + lengths[v][j];
+					if (seen[w] == search && distance[w] <= length) {
+						continue;
+					}
+					addShortcut(u, w, length);
+				}
+			}
+		}
+
+		/**
+		 * limited Dijkstra from u that avoids v, to find paths that make a shortcut over v unnecessary
+		 */
+		private void witnessSearch(int u, int v, double maxlength) {
+			search++;
+			witnessopen.clear();
+			seen[u] = search;
+			distance[u] = 0;
+			witnessopen.add(u, 0);
+			int settled = 0;
+			while (!witnessopen.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+				int current = witnessopen.poll();
+				settled++;
+				if (distance[current] > maxlength) {
+					break;
+				}
+				for (int i = 0; i < degree[current]; i++) {
+					int next = neighbours[current][i];
+					if (next == v || contracted[next]) {
+						continue;
+					}
+					double d = distance[current] + lengths[current][i];
+					if (seen[next] != search) {
+						seen[next] = search;
+						distance[next] = d;
+						witnessopen.add(next, d);
+					}
+					else if (d < distance[next]) {
+						distance[next] = d;
+						witnessopen.decrease(next, d);
+					}
+				}
+			}
+		}
+
+		private void addShortcut(int from, int to, double length) {
+			if (shortcutcount == shortcutfrom.length) {
+				shortcutfrom = Arrays.copyOf(shortcutfrom, 2 * shortcutcount);
+				shortcutto = Arrays.copyOf(shortcutto, 2 * shortcutcount);
+				shortcutlength = Arrays.copyOf(shortcutlength, 2 * shortcutcount);
+			}
+			shortcutfrom[shortcutcount] = from;
+			shortcutto[shortcutcount] = to;
+			shortcutlength[shortcutcount++] = length;
+		}
+
+		/**
+		 * adds an edge or shortens an existing one
+		 */
+		private void addEdge(int from, int to, double length, int middle) {
+			for (int i = 0; i < degree[from]; i++) {
+				if (neighbours[from][i] == to) {
+					if (length < lengths[from][i]) {
+						lengths[from][i] = length;
+						middles[from][i] = middle;
+					}
+					return;
+				}
+			}
+			if (degree[from] == neighbours[from].length) {
+				int size = Math.max(4, 2 * degree[from]);
+				neighbours[from] = Arrays.copyOf(neighbours[from], size);
+				lengths[from] = Arrays.copyOf(lengths[from], size);
+				middles[from] = Arrays.copyOf(middles[from], size);
+			}
+			neighbours[from][degree[from]] = to;
+			lengths[from][degree[from]] = length;
+			middles[from][degree[from]++] = middle;
+		}
+	}
+
+
+	/**
+	 * one direction of a query
+	 */
+	private final class Search {
+		final double[] distance = new double[nodes.length];	// distance from the start of this direction
+		final int[] parent = new int[nodes.length];			// predecessor in the search tree
+		final int[] parentedge = new int[nodes.length];		// upward edge from the predecessor
+		final int[] seen = new int[nodes.length];			// query in which the node was reached
+		final NodeHeap open = new NodeHeap(ids);
+		final Workspace workspace;
+
+		Search(Workspace workspace) {
+			this.workspace = workspace;
+		}
+
+		void reach(int node, double d, int from, int edge) {
+			seen[node] = workspace.search;
+			distance[node] = d;
+			parent[node] = from;
+			parentedge[node] = edge;
+			open.add(node, d);
+		}
+
+		void relax(int node, double d, int from, int edge) {
+			if (seen[node] != workspace.search) {
+				reach(node, d, from, edge);
+			}
+			else if (d < distance[node]) {
+				distance[node] = d;
+				parent[node] = from;
+				parentedge[node] = edge;
+				open.decrease(node, d);
+			}
+		}
+	}
+
+	/**
+	 * query state for one thread, entries of the searches are only valid for the current query
+	 */
+	private final class Workspace {
+		int search;
+		final Search forward = new Search(this);
+		final Search backward = new Search(this);
+		final int[] edges = new int[nodes.length];			// upward edges of a path in the search tree
+
+		void reset() {
+			search++;
+			if (search == Integer.MAX_VALUE) {
+				Arrays.fill(forward.seen, 0);
+				Arrays.fill(backward.seen, 0);
+				search = 1;
+			}
+			forward.open.clear();
+			backward.open.clear();
+		}
+	}
+}
@@ -28,14 +28,26 @@ public class Coordinate {
 	 * @return
 	 */
 	public double getDistance(Coordinate target) {
-		Double result;
+		return getDistance(this.lat, this.lon, target.getLat(), target.getLon());
+	}
+	
+	
+	/**
+	 * Gives you the direct distance between two lat/lon positions in meter, without needing Coordinate objects for them
+	 * @param lat
+	 * @param lon
+	 * @param targetlat
+	 * @param targetlon
+	 * @return
+	 */
+	public static double getDistance(double lat, double lon, double targetlat, double targetlon) {
 		double radius = 6378388;
-		result = radius * Math.acos(Math.sin(Math.toRadians(this.lat)) * Math.sin(Math.toRadians(target.getLat()))
-						+ Math.cos(Math.toRadians(this.lat)) * Math.cos(Math.toRadians(target.getLat()))
-						* Math.cos(Math.toRadians(this.lon) - Math.toRadians(target.getLon())));
+		double result = radius * Math.acos(Math.sin(Math.toRadians(lat)) * Math.sin(Math.toRadians(targetlat))
+						+ Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(targetlat))
+						* Math.cos(Math.toRadians(lon) - Math.toRadians(targetlon)));
 		
 		// if numbers get sufficiently close to each other or the coordinates are actually the same the result is NAN, when it should be 0 (or very close to it) 
-		if (result.isNaN()) {
+		if (Double.isNaN(result)) {
 			return 0;
 		}
 		return result;
@@ -0,0 +1,114 @@
+package de.postsim.Objects;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to int values with open addressing and linear probing.
+ * Keys and values are kept in primitive arrays, so there is no boxing and no entry object per mapping.
+ * Values can't be negative, a negative value is used to mark a missing key.
+ */
+public class LongIntHashMap {
+
+	private static final int MISSING = -1;
+
+	private long[] keys;			// keys, a slot is free if its value is MISSING
+	private int[] values;			// values for the keys in the same slot
+	private int size;				// number of keys in the map
+	private int mask;				// table length - 1, the table length is a power of two
+
+	/**
+	 * constructs an empty map that can hold the expected number of keys without growing
+	 * @param expectedsize
+	 */
+	public LongIntHashMap(int expectedsize) {
+		int length = 16;
+		while (length < 2L * expectedsize) {
+			length <<= 1;
+		}
+		allocate(length);
+	}
+
+
+	/**
+	 * adds a mapping or replaces the value of an existing key
+	 * @param key
+	 * @param value must not be negative
+	 * @return the previous value of the key or -1 if there was none
+	 */
+	public int put(long key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("negative value " + value);
+		}
+		if (2 * (size + 1) > keys.length) {
+			grow();
+		}
+		int slot = slot(key);
+		while (values[slot] != MISSING) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		return MISSING;
+	}
+
+
+	/**
+	 * @param key
+	 * @return the value of the key or -1 if the key is not in the map
+	 */
+	public int get(long key) {
+		int slot = slot(key);
+		while (values[slot] != MISSING) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return MISSING;
+	}
+
+
+	public boolean containsKey(long key) {
+		return get(key) != MISSING;
+	}
+
+	public int size() {
+		return size;
+	}
+
+
+	private int slot(long key) {
+		// finalizer of MurmurHash3, spreads similar keys over the whole table
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	private void allocate(int length) {
+		keys = new long[length];
+		values = new int[length];
+		Arrays.fill(values, MISSING);
+		mask = length - 1;
+	}
+
+	private void grow() {
+		long[] oldkeys = keys;
+		int[] oldvalues = values;
+		allocate(2 * oldkeys.length);
+		size = 0;
+		for (int i = 0; i < oldkeys.length; i++) {
+			if (oldvalues[i] != MISSING) {
+				put(oldkeys[i], oldvalues[i]);
+			}
+		}
+	}
+}
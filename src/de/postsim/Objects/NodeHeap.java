@@ -0,0 +1,126 @@
+package de.postsim.Objects;
+
+/**
+ * binary min-heap of node indices with decrease-key, used as open list by the searches on the road graph.
+ * Nodes with the same key are ordered by their OpenStreetMap id, so searches don't depend on the order of the node indices
+ */
+class NodeHeap {
+
+	private final long[] ids;			// ids of the nodes by their index, used to break ties
+	private final double[] key;			// key of every node in the heap
+	private final int[] heap;			// node indices in heap order
+	private final int[] position;		// position of a node in the heap
+	private int size;					// number of nodes in the heap
+
+	/**
+	 * constructs an empty heap for nodes with indices smaller than ids.length
+	 * @param ids
+	 */
+	NodeHeap(long[] ids) {
+		this.ids = ids;
+		key = new double[ids.length];
+		heap = new int[ids.length];
+		position = new int[ids.length];
+	}
+
+
+	/**
+	 * adds a node that is not in the heap yet
+	 * @param node
+	 * @param nodekey
+	 */
+	void add(int node, double nodekey) {
+		key[node] = nodekey;
+		heap[size] = node;
+		position[node] = size;
+		size++;
+		up(size - 1);
+	}
+
+
+	/**
+	 * lowers the key of a node in the heap
+	 * @param node
+	 * @param nodekey
+	 */
+	void decrease(int node, double nodekey) {
+		key[node] = nodekey;
+		up(position[node]);
+	}
+
+
+	/**
+	 * removes the node with the smallest key from the heap
+	 * @return the node index
+	 */
+	int poll() {
+		int result = heap[0];
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			down(0);
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return the smallest key in the heap, infinity if the heap is empty
+	 */
+	double peekKey() {
+		return size > 0 ? key[heap[0]] : Double.POSITIVE_INFINITY;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+
+	private boolean before(int a, int b) {
+		if (key[a] != key[b]) {
+			return key[a] < key[b];
+		}
+		return ids[a] < ids[b];
+	}
+
+	private void up(int i) {
+		int node = heap[i];
+		while (i > 0) {
+			int p = (i - 1) >>> 1;
+			if (!before(node, heap[p])) {
+				break;
+			}
+			heap[i] = heap[p];
+			position[heap[i]] = i;
+			i = p;
+		}
+		heap[i] = node;
+		position[node] = i;
+	}
+
+	private void down(int i) {
+		int node = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], node)) {
+				break;
+			}
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		position[node] = i;
+	}
+}
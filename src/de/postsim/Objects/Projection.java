@@ -0,0 +1,89 @@
+package de.postsim.Objects;
+
+/**
+ * Equirectangular projection of the positions on a map onto a plane in meters, fixed by the map when it is built.
+ * The maps are only a few kilometres across, so distances on the plane are exact enough for range checks
+ * and need no trigonometric functions. Coordinate.getDistance is still used for the distances in the statistics.
+ * x grows with the longitude and y with the latitude, both are 0 at the origin of the projection.
+ */
+public class Projection {
+
+	private static final double RADIUS = 6378388;					// earth radius, same as in Coordinate.getDistance
+	private static final double METERS_PER_DEGREE = RADIUS * Math.PI / 180;
+	private static final double LOWER_BOUND_MARGIN = 0.999;			// keeps lower bounds below the spherical distance despite rounding
+
+	private final double originlat;
+	private final double originlon;
+	private final double lonscale;									// meters per degree longitude at the origin
+	private final double lowerboundscale;							// share of lonscale that is a lower bound anywhere on the map
+
+	/**
+	 * constructs the projection for a map
+	 * @param originlat latitude the plane touches the earth at, usually the middle of the map
+	 * @param originlon
+	 * @param maxlatitude latitude on the map farthest away from the equator
+	 */
+	public Projection(double originlat, double originlon, double maxlatitude) {
+		this.originlat = originlat;
+		this.originlon = originlon;
+		this.lonscale = METERS_PER_DEGREE * Math.cos(Math.toRadians(originlat));
+		this.lowerboundscale = Math.cos(Math.toRadians(Math.abs(maxlatitude))) / Math.cos(Math.toRadians(originlat));
+	}
+
+
+	/**
+	 * @param lon
+	 * @return the position on the plane along the longitude in meters
+	 */
+	public double getX(double lon) {
+		return (lon - originlon) * lonscale;
+	}
+
+	/**
+	 * @param lat
+	 * @return the position on the plane along the latitude in meters
+	 */
+	public double getY(double lat) {
+		return (lat - originlat) * METERS_PER_DEGREE;
+	}
+
+	/**
+	 * @param x
+	 * @return the longitude of a position on the plane
+	 */
+	public double getLon(double x) {
+		return x / lonscale + originlon;
+	}
+
+	/**
+	 * @param y
+	 * @return the latitude of a position on the plane
+	 */
+	public double getLat(double y) {
+		return y / METERS_PER_DEGREE + originlat;
+	}
+
+	public double getX(Coordinate position) {
+		return getX(position.getLon());
+	}
+
+	public double getY(Coordinate position) {
+		return getY(position.getLat());
+	}
+
+
+	/**
+	 * a distance between two projected positions that is never more than their distance on the earth,
+	 * as needed by the heuristic of a shortest path search
+	 * @param x
+	 * @param y
+	 * @param targetx
+	 * @param targety
+	 * @return the distance in meters
+	 */
+	public double getLowerBoundDistance(double x, double y, double targetx, double targety) {
+		double dx = (x - targetx) * lowerboundscale;
+		double dy = y - targety;
+		return Math.sqrt(dx * dx + dy * dy) * LOWER_BOUND_MARGIN;
+	}
+}
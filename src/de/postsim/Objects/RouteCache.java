@@ -0,0 +1,122 @@
+package de.postsim.Objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of paths between two nodes of a SimMap, the least recently used path is dropped first.
+ * Paths are stored as unmodifiable lists that can be shared between all users and threads,
+ * pairs of nodes without a path are remembered as well. All methods are thread-safe.
+ */
+public class RouteCache {
+
+	// marks a pair of nodes without a path
+	private static final List<SimNode> NO_PATH = Collections.unmodifiableList(new ArrayList<SimNode>());
+
+	private int capacity;										// maximum number of cached paths, 0 disables the cache
+	private long hits;											// number of paths found in the cache
+	private long misses;										// number of paths that had to be searched
+	private final LinkedHashMap<Long, List<SimNode>> paths = new LinkedHashMap<Long, List<SimNode>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, List<SimNode>> eldest) {
+			return size() > capacity;
+		}
+	};
+
+	/**
+	 * constructs an empty cache
+	 * @param capacity maximum number of cached paths
+	 */
+	RouteCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+
+	/**
+	 * looks up the path between two nodes and counts a hit or a miss
+	 * @param startingnode
+	 * @param endnode
+	 * @return the shared path, NO_PATH if there is no path between the nodes or null if the pair is not cached
+	 */
+	synchronized List<SimNode> get(SimNode startingnode, SimNode endnode) {
+		List<SimNode> path = paths.get(getKey(startingnode, endnode));
+		if (path != null) {
+			hits++;
+		}
+		else {
+			misses++;
+		}
+		return path;
+	}
+
+
+	/**
+	 * stores a copy of a path between two nodes
+	 * @param startingnode
+	 * @param endnode
+	 * @param path the path or null if there is none
+	 * @return the shared path as stored in the cache
+	 */
+	synchronized List<SimNode> put(SimNode startingnode, SimNode endnode, ArrayList<SimNode> path) {
+		List<SimNode> shared = path == null ? NO_PATH : Collections.unmodifiableList(new ArrayList<SimNode>(path));
+		if (capacity > 0) {
+			paths.put(getKey(startingnode, endnode), shared);
+		}
+		return shared;
+	}
+
+
+	/**
+	 * @param path a path returned by get or put
+	 * @return true if the path stands for a pair of nodes without a path
+	 */
+	static boolean isNoPath(List<SimNode> path) {
+		return path == NO_PATH;
+	}
+
+
+	/**
+	 * changes the maximum number of cached paths, dropping the least recently used ones if necessary
+	 * @param capacity
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		while (paths.size() > capacity) {
+			paths.remove(paths.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * removes all paths and resets the counters
+	 */
+	public synchronized void clear() {
+		paths.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+	private static Long getKey(SimNode startingnode, SimNode endnode) {
+		return ((long) startingnode.getIndex() << 32) | (endnode.getIndex() & 0xffffffffL);
+	}
+
+	// getters
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int getSize() {
+		return paths.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -1,10 +1,11 @@
 package de.postsim.Objects;
 
 import java.util.*;
-import java.util.Map.Entry;
 
 /**
  * Map on which we simulate our Users and Pakets. Stores Nodes and Ways.
+ * A map is not changed after it has been built and is thread-safe, so several simulations can share it.
+ * Everything a simulation changes about the nodes is kept in its own MapOverlay
  * @author Nils Stahlhut
  *
  */
@@ -13,11 +14,25 @@ public class SimMap {
 	private ArrayList<SimNode> nodes = new ArrayList<SimNode>();				// list of nodes on the map
 	private ArrayList<SimNode> randomnodes = new ArrayList<SimNode>();			// list of nodes that are used, when a random node is needed
 	private ArrayList<SimWay> ways = new ArrayList<SimWay>();					// list of ways on the map
+	// road graph in compressed sparse row form: the neighbours of the node with index i are
+	// edgetargets[edgeoffsets[i]] to edgetargets[edgeoffsets[i+1]-1] with the lengths in edgelengths
+	private SimNode[] nodeindex;												// nodes by their index
+	private int[] edgeoffsets;
+	private int[] edgetargets;
+	private double[] edgelengths;
+	private long[] nodeids;														// ids of the nodes by their index
+	private LongIntHashMap positionindex;										// node index by the packed position of the node, see getPositionKey
+	private LongIntHashMap idindex;												// node index by the id of the node
+	private AStar astar;														// shortest path search on the road graph
+	private Projection projection;												// plane the positions are projected onto for distances in meters
+	private volatile ContractionHierarchy hierarchy;							// optional faster path search, see prepareContractionHierarchy
+	private RouteCache routecache = new RouteCache(10000);						// recently used paths
+	private int[] componentids;													// connected component of the road graph by node index
+	private int[] componentsizes;												// number of nodes by component id
 	private double topBound;													// coordinates for borders of the map
 	private double bottomBound;
 	private double rightBound;
 	private double leftBound;
-	private Random rgen; // static random seed for reproducability
 
 
 	/**
@@ -28,201 +43,419 @@ public class SimMap {
 	 * @param rightBound
 	 * @param leftBound
 	 */
-	public SimMap(Random rgen, ArrayList<SimWay> ways, double topBound, double bottomBound, double rightBound, double leftBound) {
-		this.rgen = rgen;
-		// get all the nodes out of the ways
-		ArrayList<SimNode> tempnodes = new ArrayList<SimNode>();
+	public SimMap(ArrayList<SimWay> ways, double topBound, double bottomBound, double rightBound, double leftBound) {
+		buildRoadGraph(ways);
+		
+		// set our other constructor variables
+		this.setWays(ways);
+		this.topBound = topBound;
+		this.bottomBound = bottomBound;
+		this.rightBound = rightBound;
+		this.leftBound = leftBound;
+		
+		// builds our list from which we extract random nodes as targets and positions for users and pakets
+		buildRandomNodesGraph();
+	}
+	
+	
+	/**
+	 * construct our map out of a road graph that has been built before, e.g. by a map loaded from a file
+	 * @param nodes the nodes by their index
+	 * @param edgeoffsets road graph in compressed sparse row form, see getEdgeOffsets
+	 * @param edgetargets
+	 * @param edgelengths
+	 * @param ways
+	 * @param randomnodes nodes that are used, when a random node is needed
+	 * @param topBound
+	 * @param bottomBound
+	 * @param rightBound
+	 * @param leftBound
+	 */
+	public SimMap(SimNode[] nodes, int[] edgeoffsets, int[] edgetargets, double[] edgelengths,
+			ArrayList<SimWay> ways, ArrayList<SimNode> randomnodes,
+			double topBound, double bottomBound, double rightBound, double leftBound) {
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].setIndex(i);
+		}
+		this.setNodes(new ArrayList<SimNode>(Arrays.asList(nodes)));
+		setRoadGraph(nodes, edgeoffsets, edgetargets, edgelengths);
+		this.setWays(ways);
+		this.topBound = topBound;
+		this.bottomBound = bottomBound;
+		this.rightBound = rightBound;
+		this.leftBound = leftBound;
+		this.setRandomnodes(randomnodes);
+	}
+	
+	
+	/**
+	 * builds the node list and the road graph in compressed sparse row form out of the ways.
+	 * Every pair of consecutive nodes in a way becomes an edge in both directions, duplicate edges are dropped
+	 * and nodes without any neighbour are left out of the map as a safety measure
+	 * @param ways
+	 */
+	private void buildRoadGraph(ArrayList<SimWay> ways) {
+		// eliminate duplicate nodes by putting them into a hashset (no duplicates allowed in this type of collection),
+		// keeping the order in which they appear in the ways so the node indices are the same on every run
+		LinkedHashSet<SimNode> hs = new LinkedHashSet<SimNode>();
+		int pairs = 0;
 		for (int i = 0; i < ways.size(); i++) {
-			SimWay w = ways.get(i);
-			tempnodes.addAll(w.getNodes());
+			ArrayList<SimNode> waynodes = ways.get(i).getNodes();
+			for (int i2 = 0; i2 < waynodes.size(); i2++) {
+				if (waynodes.get(i2) != null) {
+					hs.add(waynodes.get(i2));
+				}
+			}
+			pairs += Math.max(0, waynodes.size() - 1);
+		}
+		ArrayList<SimNode> tempnodes = new ArrayList<SimNode>(hs);
+		for (int i = 0; i < tempnodes.size(); i++) {
+			tempnodes.get(i).setIndex(i);
 		}
 		
-		// eliminate duplicate nodes in our list by putting them into a hashset (no duplicates allowed in this type of collection)
-		HashSet<SimNode> hs = new HashSet<SimNode>();		
-		hs.addAll(tempnodes);
-		// clear our old list and add our nodes without duplicates from the Hashset
-		tempnodes.clear();
-		tempnodes.addAll(hs);
-		this.setNodes(tempnodes);
-		
-		// iterate through all ways to add their neighbours to every node 
+		// collect every edge in both directions
+		int[] from = new int[2 * pairs];
+		int[] to = new int[2 * pairs];
+		double[] length = new double[2 * pairs];
+		int edges = 0;
 		for (int i = 0; i < ways.size(); i++) {
-			SimWay w = ways.get(i);
-			ArrayList<SimNode> waynodes = new ArrayList<SimNode>();
-			waynodes = w.getNodes();
+			ArrayList<SimNode> waynodes = ways.get(i).getNodes();
 			for (int i2 = 0; i2 < (waynodes.size() - 1); i2++) {
 				SimNode node1 = waynodes.get(i2);
 				SimNode node2 = waynodes.get(i2 + 1);
+				if (node1 == null || node2 == null || node1 == node2) {
+					continue;
+				}
 				double distance = node1.getPosition().getDistance(node2.getPosition());
-				node1.addNeighbour(node2, distance);
-				node2.addNeighbour(node1, distance);
+				from[edges] = node1.getIndex();
+				to[edges] = node2.getIndex();
+				length[edges++] = distance;
+				from[edges] = node2.getIndex();
+				to[edges] = node1.getIndex();
+				length[edges++] = distance;
 			}
 		}
 		
-		// iterate through our nodes and remove every node without a neighbour as a safety measure
-		for (int i = 0; i < this.getNodes().size(); i++) {
-			SimNode node = this.getNodes().get(i);
-			if (node.getNeighbours().size() < 1) {
-				this.getNodes().remove(node);
+		// give every node with at least one neighbour its final index
+		int[] degree = new int[tempnodes.size()];
+		for (int e = 0; e < edges; e++) {
+			degree[from[e]]++;
+		}
+		int[] newindex = new int[tempnodes.size()];
+		ArrayList<SimNode> graphnodes = new ArrayList<SimNode>(tempnodes.size());
+		for (int i = 0; i < tempnodes.size(); i++) {
+			SimNode node = tempnodes.get(i);
+			if (degree[i] > 0) {
+				newindex[i] = graphnodes.size();
+				node.setIndex(graphnodes.size());
+				graphnodes.add(node);
+			}
+			else {
+				newindex[i] = -1;
+				node.setIndex(-1);
 			}
-		}	
+		}
 		
-		// set our other constructor variables
-		this.setWays(ways);
-		this.setTopBound(topBound);
-		this.setBottomBound(bottomBound);
-		this.setRightBound(rightBound);
-		this.setLeftBound(leftBound);
+		// sort the edges by their starting node and drop duplicates
+		int n = graphnodes.size();
+		int[] offsets = new int[n + 1];
+		for (int e = 0; e < edges; e++) {
+			offsets[newindex[from[e]] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] fill = Arrays.copyOf(offsets, n);
+		int[] targets = new int[edges];
+		double[] lengths = new double[edges];
+		for (int e = 0; e < edges; e++) {
+			int slot = fill[newindex[from[e]]]++;
+			targets[slot] = newindex[to[e]];
+			lengths[slot] = length[e];
+		}
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			int start = count;
+			for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+				boolean duplicate = false;
+				for (int e2 = start; e2 < count; e2++) {
+					if (targets[e2] == targets[e]) {
+						duplicate = true;
+						break;
+					}
+				}
+				if (!duplicate) {
+					targets[count] = targets[e];
+					lengths[count++] = lengths[e];
+				}
+			}
+			offsets[i] = start;
+		}
+		offsets[n] = count;
 		
-		// builds our list from which we extract random nodes as targets and positions for users and pakets
-		buildRandomNodesGraph();
+		this.setNodes(graphnodes);
+		setRoadGraph(graphnodes.toArray(new SimNode[n]), offsets, Arrays.copyOf(targets, count), Arrays.copyOf(lengths, count));
 	}
 	
 	
 	/**
-	 * this function creates a list of nodes. This list contains the biggest possible subgraph in our map within its bounds.
+	 * sets the road graph and builds the indices and the path search on it
+	 * @param nodes the nodes by their index
+	 * @param offsets
+	 * @param targets
+	 * @param lengths
+	 */
+	private void setRoadGraph(SimNode[] nodes, int[] offsets, int[] targets, double[] lengths) {
+		int n = nodes.length;
+		this.nodeindex = nodes;
+		this.edgeoffsets = offsets;
+		this.edgetargets = targets;
+		this.edgelengths = lengths;
+		this.nodeids = new long[n];
+		this.idindex = new LongIntHashMap(n);
+		for (int i = 0; i < n; i++) {
+			nodeids[i] = nodeindex[i].getId();
+			idindex.put(nodeids[i], i);
+		}
+		this.positionindex = new LongIntHashMap(n);
+		for (int i = 0; i < n; i++) {
+			Coordinate position = nodeindex[i].getPosition();
+			positionindex.put(getPositionKey(position.getLat(), position.getLon()), i);
+		}
+		buildProjection();
+		this.astar = new AStar(nodeindex, nodeids, edgeoffsets, edgetargets, edgelengths, projection);
+		labelComponents();
+	}
+	
+	
+	/**
+	 * fixes the projection of the map around the middle of its nodes and projects the nodes
+	 */
+	private void buildProjection() {
+		double minlat = 0, maxlat = 0, minlon = 0, maxlon = 0;
+		if (nodeindex.length > 0) {
+			minlat = maxlat = nodeindex[0].getPosition().getLat();
+			minlon = maxlon = nodeindex[0].getPosition().getLon();
+		}
+		for (int i = 1; i < nodeindex.length; i++) {
+			Coordinate position = nodeindex[i].getPosition();
+			minlat = Math.min(minlat, position.getLat());
+			maxlat = Math.max(maxlat, position.getLat());
+			minlon = Math.min(minlon, position.getLon());
+			maxlon = Math.max(maxlon, position.getLon());
+		}
+		projection = new Projection((minlat + maxlat) / 2, (minlon + maxlon) / 2, Math.max(Math.abs(minlat), Math.abs(maxlat)));
+		for (int i = 0; i < nodeindex.length; i++) {
+			Coordinate position = nodeindex[i].getPosition();
+			nodeindex[i].setProjected(projection.getX(position), projection.getY(position));
+		}
+	}
+	
+	
+	/**
+	 * labels the connected components of the road graph with a breadth-first search, every node is visited once.
+	 * Components are numbered in the order of their node with the smallest index
+	 */
+	private void labelComponents() {
+		int n = nodeindex.length;
+		componentids = new int[n];
+		Arrays.fill(componentids, -1);
+		int[] queue = new int[n];
+		int[] sizes = new int[n];
+		int components = 0;
+		for (int start = 0; start < n; start++) {
+			if (componentids[start] >= 0) {
+				continue;
+			}
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = start;
+			componentids[start] = components;
+			while (head < tail) {
+				int current = queue[head++];
+				for (int e = edgeoffsets[current]; e < edgeoffsets[current + 1]; e++) {
+					int neighbour = edgetargets[e];
+					if (componentids[neighbour] < 0) {
+						componentids[neighbour] = components;
+						queue[tail++] = neighbour;
+					}
+				}
+			}
+			sizes[components++] = tail;
+		}
+		componentsizes = Arrays.copyOf(sizes, components);
+	}
+	
+	
+	/**
+	 * this function creates a list of nodes. This list contains the nodes within the bounds of the map
+	 * that belong to the connected component with the most nodes within the bounds.
 	 * we set this list as "randomnodes" so Users and Pakets don't spawn or get targets out of bounds or in little places on the map 
 	 * that have no connection to the rest of the map
 	 */
-	public void buildRandomNodesGraph () {
-		ArrayList<SimNode> tempnodes = new ArrayList<SimNode>();
-		// eliminate every node that is not within bounds of the map
-		for (int i = 0; i < nodes.size(); i++) {
-			SimNode node = nodes.get(i);
-			if (node.getPosition().getLon() > leftBound &&
-				node.getPosition().getLon() < rightBound &&
-				node.getPosition().getLat() > bottomBound &&
-				node.getPosition().getLat() < topBound) {
-				tempnodes.add(node);
+	private void buildRandomNodesGraph () {
+		// count the nodes within bounds of the map per component
+		int[] inbounds = new int[componentsizes.length];
+		for (int i = 0; i < nodeindex.length; i++) {
+			if (isInBounds(nodeindex[i])) {
+				inbounds[componentids[i]]++;
 			}
 		}
-		
-		// graphlist is a list of all the subgraphs we build
-		ArrayList<HashSet<SimNode>> graphlist = new ArrayList<HashSet<SimNode>>();
-		int biggestgraph = 0;
-		/* all nodes that are added to one of our subgraphs are deleted from our tempnodes list (all nodes excluding out of bounds)
-		 * so if our biggest subgraph is bigger than the tempnodes list with the remaining nodes, we can't find a bigger graph and 
-		 * so have found our biggest possible subgraph
-		 */
-		while (tempnodes.size() > biggestgraph) {
-			SimNode start = tempnodes.get(0);
-			ArrayList<SimNode> tempnodes2 = new ArrayList<SimNode>();
-			HashSet<SimNode> subgraph = new HashSet<SimNode>();
-			subgraph.add(start);
-			tempnodes2.addAll(tempnodes);
-			// iterate through all nodes from a random starting point and add every node on every path we find
-			// if our iteration is finished we know every node reachable from our random starting point
-			// usually we won't need more than one to three iterations, which is faster than using Dijkstra
-			while (!tempnodes2.isEmpty()) {
-				int x = (int) RandomNumber(0, tempnodes2.size());
-				ArrayList<SimNode> path = new ArrayList<SimNode>();
-				path = getPath(start, tempnodes2.get(x));
-				if (path != null) {
-					subgraph.addAll(path);
-					tempnodes2.remove(x);
-					tempnodes2.removeAll(path);
-				}
-				else {
-					tempnodes2.remove(x);
-				}
+		int biggestgraph = -1;
+		for (int c = 0; c < inbounds.length; c++) {
+			if (inbounds[c] > 0 && (biggestgraph < 0 || inbounds[c] > inbounds[biggestgraph])) {
+				biggestgraph = c;
 			}
-			graphlist.add(subgraph);
-			for (int i = 0; i < graphlist.size(); i++) {
-				HashSet<SimNode> g = new HashSet<SimNode>();
-				g = graphlist.get(i);
-				if (g.size() > biggestgraph) {
-					biggestgraph = g.size();
-				}
-			}
-			tempnodes.removeAll(subgraph);
 		}
 		
-		HashSet<SimNode> result = new HashSet<SimNode>();
-		for (int i = 0; i < graphlist.size(); i++) {
-			HashSet<SimNode> subgraph = new HashSet<SimNode>();
-			subgraph = graphlist.get(i);
-			if (subgraph.size() > result.size()) {
-				result.clear();
-				result.addAll(subgraph);
+		ArrayList<SimNode> result = new ArrayList<SimNode>(biggestgraph < 0 ? 0 : inbounds[biggestgraph]);
+		for (int i = 0; i < nodeindex.length; i++) {
+			if (componentids[i] == biggestgraph && isInBounds(nodeindex[i])) {
+				result.add(nodeindex[i]);
 			}
 		}
-		ArrayList<SimNode> result2 = new ArrayList<SimNode>();
-		result2.addAll(result);
-		this.setRandomnodes(result2);
+		this.setRandomnodes(result);
 	}
 	
 	
 	/**
-	 * get a path to another node on the map using the A*-algorithm
+	 * @param node
+	 * @return true if the node lies within the bounds of the map
+	 */
+	private boolean isInBounds(SimNode node) {
+		return node.getPosition().getLon() > leftBound &&
+			node.getPosition().getLon() < rightBound &&
+			node.getPosition().getLat() > bottomBound &&
+			node.getPosition().getLat() < topBound;
+	}
+	
+	
+	/**
+	 * the connected component of the road graph a node belongs to, two nodes have a path between them
+	 * if and only if they have the same component id
+	 * @param node
+	 * @return the component id or -1 if the node is not part of the road graph
+	 */
+	public int getComponentId(SimNode node) {
+		if (node.getIndex() < 0) {
+			return -1;
+		}
+		return componentids[node.getIndex()];
+	}
+	
+	
+	/**
+	 * @param componentid
+	 * @return the number of nodes in the component
+	 */
+	public int getComponentSize(int componentid) {
+		return componentsizes[componentid];
+	}
+	
+	
+	/**
+	 * @return the number of connected components of the road graph
+	 */
+	public int getComponentCount() {
+		return componentsizes.length;
+	}
+	
+	
+	/**
+	 * get a path to another node on the map. Paths are taken from the route cache if possible,
+	 * otherwise they are searched with the A*-algorithm or the contraction hierarchy if it has been prepared
 	 * @param startingnode
 	 * @param endnode
-	 * @return
+	 * @return a new list with the path without the startingnode or null if there is none
 	 */
 	public ArrayList<SimNode> getPath(SimNode startingnode, SimNode endnode) {
-		TreeMap<SimNode, SimNode> openlist = new TreeMap<SimNode, SimNode>();
-		HashMap<SimNode, SimNode> closedlist = new HashMap<SimNode, SimNode>();
-		startingnode.setFvalue(startingnode.getPosition().getDistance(endnode.getPosition()));
-		openlist.put(startingnode, null);
-		
-		while (openlist.size() != 0) {
-			SimNode current = openlist.firstKey();
-			
-			if (current.equals(endnode)) {
-				ArrayList<SimNode> path = new ArrayList<SimNode>();
-				path.add(0, current);
-				SimNode prenode = openlist.get(endnode);
-				while (prenode != null) {
-					path.add(0, prenode);
-					prenode = closedlist.get(prenode);
-				}
-				path.remove(startingnode);
-				return path;
+		List<SimNode> path = getSharedPath(startingnode, endnode);
+		if (path == null) {
+			return null;
+		}
+		return new ArrayList<SimNode>(path);
+	}
+	
+	
+	/**
+	 * same as getPath, but returns the unmodifiable list stored in the route cache,
+	 * for callers that only read the path
+	 * @param startingnode
+	 * @param endnode
+	 * @return the path without the startingnode or null if there is none
+	 */
+	public List<SimNode> getSharedPath(SimNode startingnode, SimNode endnode) {
+		if (startingnode.getIndex() < 0 || endnode.getIndex() < 0) {
+			return null;
+		}
+		List<SimNode> path = routecache.get(startingnode, endnode);
+		if (path == null) {
+			path = routecache.put(startingnode, endnode, findPath(startingnode, endnode));
+		}
+		if (RouteCache.isNoPath(path)) {
+			return null;
+		}
+		return path;
+	}
+	
+	
+	/**
+	 * searches a path with the A*-algorithm or the contraction hierarchy, bypassing the route cache
+	 * @param startingnode
+	 * @param endnode
+	 * @return the path without the startingnode or null if there is none
+	 */
+	private ArrayList<SimNode> findPath(SimNode startingnode, SimNode endnode) {
+		ContractionHierarchy ch = hierarchy;
+		if (ch != null) {
+			return ch.getPath(startingnode, endnode);
+		}
+		return astar.getPath(startingnode, endnode);
+	}
+	
+	
+	/**
+	 * builds a contraction hierarchy over the road graph, afterwards getPath uses it instead of the A*-algorithm.
+	 * The preprocessing takes a while on big maps, but pays off when a lot of paths are needed
+	 */
+	public synchronized void prepareContractionHierarchy() {
+		if (hierarchy == null) {
+			hierarchy = new ContractionHierarchy(nodeindex, nodeids, edgeoffsets, edgetargets, edgelengths);
+		}
+	}
+	
+	
+	/**
+	 * @return true if getPath uses a contraction hierarchy
+	 */
+	public boolean hasContractionHierarchy() {
+		return hierarchy != null;
+	}
+	
+	
+	/**
+	 * length of the edge between the nodes with the given indices
+	 * @param from
+	 * @param to
+	 * @return the length in meters or NaN if the nodes are not neighbours
+	 */
+	private double getEdgeLength(int from, int to) {
+		for (int e = edgeoffsets[from]; e < edgeoffsets[from + 1]; e++) {
+			if (edgetargets[e] == to) {
+				return edgelengths[e];
 			}
-			
-			closedlist.put(current, openlist.get(openlist.firstKey()));
-			openlist.remove(openlist.firstKey());
-			
-			
-			for(Entry<SimNode, Double> neighbour : current.getNeighbours().entrySet()){
-	            SimNode neighbournode = neighbour.getKey();
-	            if (closedlist.containsKey(neighbournode)) {
-	            	continue;
-	            }
-	            
-	            double fvalue = neighbour.getValue().doubleValue();
-	            SimNode currentnode = current;
-            	SimNode previousnode = closedlist.get(current);
-				while (previousnode != null) {
-					double distance = previousnode.getNeighbours().get(currentnode);
-					fvalue += distance;
-					currentnode = previousnode;
-					previousnode = closedlist.get(previousnode);
-				}
-				fvalue += neighbournode.getPosition().getDistance(endnode.getPosition());
-	            
-	            if (openlist.containsKey(neighbournode)) {
-	            	if (fvalue < neighbournode.getFvalue().doubleValue()) {
-	            		openlist.remove(neighbournode);
-	            		neighbournode.setFvalue(new Double(fvalue));
-	            		openlist.put(neighbournode, current);
-	            	}
-	            }
-	            else {
-	            	neighbournode.setFvalue(new Double(fvalue));
-	            	openlist.put(neighbournode, current);
-	            }
-	        }
-		}		
-		return null;
+		}
+		return Double.NaN;
 	}
 	
 	
 	/**
 	 * fetches a random node from the map (excluding out of bounds or unreachable nodes)
+	 * @param random the random numbers of the simulation
 	 * @return
 	 */
-	public SimNode getRandomNode() {
-		int x = (int) RandomNumber(0, randomnodes.size());
+	public SimNode getRandomNode(Random random) {
+		int x = (int) RandomNumber(random, 0, randomnodes.size());
 		return randomnodes.get(x);
 	}
 	
@@ -230,9 +463,18 @@ public class SimMap {
 	/**
 	 * get the corresponding node for a Coordinate on the map
 	 * @param nodeposition
-	 * @return
+	 * @return the node at exactly this position or null if there is none
 	 */
 	public SimNode getNode(Coordinate nodeposition) {
+		int index = positionindex.get(getPositionKey(nodeposition.getLat(), nodeposition.getLon()));
+		if (index < 0) {
+			return null;
+		}
+		Coordinate position = nodeindex[index].getPosition();
+		if (position.getLat() == nodeposition.getLat() && position.getLon() == nodeposition.getLon()) {
+			return nodeindex[index];
+		}
+		// another node has the same packed position, which doesn't happen with the 7 decimal places of OpenStreetMap
 		SimNode result = null;
 		for (int i = 0; i < nodes.size(); i++) {
 			SimNode node = nodes.get(i);
@@ -246,64 +488,40 @@ public class SimMap {
 	
 	
 	/**
-	 * get a node with its id
-	 * @param nodeid
+	 * packs a position into a long with 7 decimal places per value, the precision OpenStreetMap stores positions with
+	 * @param lat
+	 * @param lon
 	 * @return
 	 */
-	public SimNode getNodeById(long nodeid) {
-		SimNode result = null;
-		for (int i = 0; i < nodes.size(); i++) {
-			SimNode node = nodes.get(i);
-			if (nodeid == node.getId()) {
-				result = node;
-			}
-		}
-		return result;
-	}
-	
-	
-	/**
-	 * 
-	 * @return the amount of times the node with the least visits was visited
-	 */
-	public int getMinTimesVisited () {
-		int result = Integer.MAX_VALUE;
-		for (int i = 0; i < nodes.size(); i++) {
-			SimNode node = nodes.get(i);
-			if (node.getTimesvisited() < result) {
-				result = node.getTimesvisited();
-			}
-		}
-		return result;
+	private static long getPositionKey(double lat, double lon) {
+		return (Math.round(lat * 1e7) << 32) | (Math.round(lon * 1e7) & 0xffffffffL);
 	}
 	
 	
 	/**
-	 * 
-	 * @return the amount of times the node with the most visits was visited
+	 * get a node with its id
+	 * @param nodeid
+	 * @return
 	 */
-	public int getMaxTimesVisited () {
-		int result = 0;
-		for (int i = 0; i < nodes.size(); i++) {
-			SimNode node = nodes.get(i);
-			if (node.getTimesvisited() > result) {
-				result = node.getTimesvisited();
-			}
+	public SimNode getNodeById(long nodeid) {
+		int index = idindex.get(nodeid);
+		if (index < 0) {
+			return null;
 		}
-		return result;
+		return nodeindex[index];
 	}
 	
 	
 	/**
 	 * Returns a random number, but doesn't include upperLimit!
 	 * 
+	 * @param random
 	 * @param lowerLimit
 	 * @param upperLimit
 	 * @return
 	 */
-	public double RandomNumber(double lowerLimit, double upperLimit) {
-		return rgen.nextDouble() * (upperLimit - lowerLimit) + lowerLimit;
-		//Math.random() * (upperLimit - lowerLimit) + lowerLimit;
+	public static double RandomNumber(Random random, double lowerLimit, double upperLimit) {
+		return random.nextDouble() * (upperLimit - lowerLimit) + lowerLimit;
 	}
 	
 	
@@ -329,17 +547,49 @@ public class SimMap {
 		return sb.toString();
 	}
 
+	/**
+	 * the neighbours of a node in the road graph
+	 * @param node
+	 * @return
+	 */
+	public ArrayList<SimNode> getNeighbours(SimNode node) {
+		int i = node.getIndex();
+		if (i < 0) {
+			return new ArrayList<SimNode>();
+		}
+		ArrayList<SimNode> result = new ArrayList<SimNode>(edgeoffsets[i + 1] - edgeoffsets[i]);
+		for (int e = edgeoffsets[i]; e < edgeoffsets[i + 1]; e++) {
+			result.add(nodeindex[edgetargets[e]]);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * get the length of the road between two neighbouring nodes
+	 * @param node
+	 * @param neighbour
+	 * @return the length in meters or NaN if the nodes are not neighbours
+	 */
+	public double getEdgeLength(SimNode node, SimNode neighbour) {
+		if (node.getIndex() < 0) {
+			return Double.NaN;
+		}
+		return getEdgeLength(node.getIndex(), neighbour.getIndex());
+	}
+	
+	
 	// getters and setters
-	public ArrayList<SimNode> getNodes() {
-		return nodes;
+	public List<SimNode> getNodes() {
+		return Collections.unmodifiableList(nodes);
 	}
 
 	private void setNodes(ArrayList<SimNode> nodes) {
 		this.nodes = nodes;
 	}
 
-	public ArrayList<SimWay> getWays() {
-		return ways;
+	public List<SimWay> getWays() {
+		return Collections.unmodifiableList(ways);
 	}
 
 	private void setWays(ArrayList<SimWay> ways) {
@@ -350,43 +600,67 @@ public class SimMap {
 		return topBound;
 	}
 
-	public void setTopBound(double topBound) {
-		this.topBound = topBound;
-	}
-
 	public double getBottomBound() {
 		return bottomBound;
 	}
 
-	public void setBottomBound(double bottomBound) {
-		this.bottomBound = bottomBound;
-	}
-
 	public double getRightBound() {
 		return rightBound;
 	}
 
-	public void setRightBound(double rightBound) {
-		this.rightBound = rightBound;
-	}
-
 	public double getLeftBound() {
 		return leftBound;
 	}
 
-	public void setLeftBound(double leftBound) {
-		this.leftBound = leftBound;
+	/**
+	 * @return the projection of the map, distances on it are in meters
+	 */
+	public Projection getProjection() {
+		return projection;
 	}
 
-	public ArrayList<SimNode> getRandomnodes() {
-		return randomnodes;
+	/**
+	 * @return the number of nodes in the road graph
+	 */
+	public int getNodeCount() {
+		return nodeindex.length;
 	}
 
-	public void setRandomnodes(ArrayList<SimNode> randomnodes) {
-		this.randomnodes = randomnodes;
+	/**
+	 * @param index
+	 * @return the node with the given index in the road graph
+	 */
+	public SimNode getNodeByIndex(int index) {
+		return nodeindex[index];
 	}
 
-	public void setRandomGenerator(Random randomGenerator) {
-		this.rgen = randomGenerator;
+	/**
+	 * the road graph is stored in compressed sparse row form: the neighbours of the node with index i are
+	 * getEdgeTargets()[getEdgeOffsets()[i]] to getEdgeTargets()[getEdgeOffsets()[i+1]-1].
+	 * The arrays are shared with the map and must not be changed
+	 * @return
+	 */
+	public int[] getEdgeOffsets() {
+		return edgeoffsets;
+	}
+
+	public int[] getEdgeTargets() {
+		return edgetargets;
+	}
+
+	public double[] getEdgeLengths() {
+		return edgelengths;
+	}
+
+	public RouteCache getRouteCache() {
+		return routecache;
+	}
+
+	public List<SimNode> getRandomnodes() {
+		return Collections.unmodifiableList(randomnodes);
+	}
+
+	private void setRandomnodes(ArrayList<SimNode> randomnodes) {
+		this.randomnodes = randomnodes;
 	}
 }
@@ -1,96 +1,176 @@
 package de.postsim.Objects;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
 
+import de.postsim.Simulation.FenwickSampler;
+import de.postsim.Simulation.MapOverlay;
+import de.postsim.Simulation.UserState;
+
 /**
- * user object, that represents Users in the simulation
+ * user object, that represents Users in the simulation.
+ * The position, the counters and the progress on the path are kept in a UserState shared with the other users of the simulation
  * @author Nils Stahlhut
  *
  */
 public class User {
-	private Coordinate position;										// position of the user
-	private ArrayList<SimNode> path = new ArrayList<SimNode>();			// path to the next node the user wants to visit
+	public static final int INTENT_WAYPOINT = 0;						// the movement algorithm chose the target
+	public static final int INTENT_FREE_PAKET = 1;						// the target is the position of a paket without carrier
+	public static final int INTENT_DESTINATION = 2;						// the target is the destination of a carried paket
+
+	private UserState state;											// position, counters and path cursor of the user
+	private int slot;													// slot of the user in the state
+	private List<SimNode> path = new ArrayList<SimNode>();				// path to the next node the user wants to visit, up to the path cursor already visited
 	private ArrayList<Paket> pakets = new ArrayList<Paket>();			// list of pakets the user is carrying
 	private double coveredDistance = 0;									// amount of distance covered
 	private double coveredDistanceasCarrier = 0;						// amount of distance covered while carrying pakets
 	private int usernumber;												// id
-	private int tradestopcounter = 0;									// counter to control stopping for a trade
-	private int waitcounter = 0;										// counter to control waiting at a smooth location
 	private ArrayList<SimNode> knownclusters = new ArrayList<SimNode>();// known clusters to the user in the Cluster algorithm
+	private FenwickSampler knownclustervalues = new FenwickSampler();	// cluster values of the known clusters, in the same order
+	private HashMap<SimNode, ArrayList<Integer>> knownclusterentries = new HashMap<SimNode, ArrayList<Integer>>();
+																		// entries of every node in the known clusters, a cluster can be known several times
+	private Random random;												// own random numbers of the user if the simulation steps in parallel
+	private int intent = INTENT_WAYPOINT;								// why the user goes to the target of its path
+	private boolean headingknown;										// false if the path changed since the heading was computed
+	private double headingx;											// unit vector towards the target of the path, see updateHeading
+	private double headingy;
 
 	/**
 	 * Standard Constructor for a User. Gives it an id, a starting position and a destination
+	 * @param state the state of the users of the simulation, the user takes the next slot in it
 	 * @param startPosition
 	 * @param target
 	 * @param id
 	 */
-	public User(Coordinate startPosition, ArrayList<SimNode> path, int id) {
-		position = startPosition;
+	public User(UserState state, Coordinate startPosition, List<SimNode> path, int id) {
+		this.state = state;
+		slot = state.add();
+		setLocation(startPosition.getLat(), startPosition.getLon());
 		setPath(path);
 		setUsernumber(id);
 	}	
 	
+	
 	/**
-	 * get angle to the target in relation to your target
-	 * @param target
+	 * the next node on the path of the user
 	 * @return
 	 */
-	public double getAngle(Coordinate target) {
-		double vectorx = path.get(path.size()-1).getPosition().getLat() - position.getLat();
-		double vectory = path.get(path.size()-1).getPosition().getLon() - position.getLon();
-		double vectorx2 = target.getLat() - position.getLat();
-		double vectory2 = target.getLon() - position.getLon();
-		double angle = Math.acos(((vectorx*vectorx2)+(vectory*vectory2))/(position.getDistance(path.get(path.size()-1).getPosition()))*position.getDistance(target));
-		return angle;
+	public SimNode getNextNode() {
+		return path.get(state.getPathcursor(slot));
 	}
 	
 	
 	/**
-	 * 
+	 * the last node on the path of the user
 	 * @return
 	 */
-	public SimNode getRandomKnowncluster(Random rgen) {
-		double totalnodevalue = 0;
-		ArrayList<SimNode> clusters = new ArrayList<SimNode>();
-		for (int i = 0; i < knownclusters.size(); i++) {
-			SimNode n = knownclusters.get(i);
-			if (n.getPosition().getLat() == getPosition().getLat() && n.getPosition().getLon() == getPosition().getLon()) {
-				
-			}
-			else{
-				clusters.add(n);
-			}
+	public SimNode getTarget() {
+		return path.get(path.size() - 1);
+	}
+	
+	
+	/**
+	 * marks the next node on the path as visited
+	 */
+	public void advancePath() {
+		state.setPathcursor(slot, state.getPathcursor(slot) + 1);
+	}
+	
+	
+	/**
+	 * @return the number of nodes on the path that haven't been visited yet
+	 */
+	public int getRemainingPathLength() {
+		return path.size() - state.getPathcursor(slot);
+	}
+	
+	/**
+	 * @param target
+	 * @return the distance between the user and the target in meters
+	 */
+	public double getDistance(Coordinate target) {
+		return Coordinate.getDistance(getLat(), getLon(), target.getLat(), target.getLon());
+	}
+	
+	
+	/**
+	 * @param other
+	 * @return the distance between the users in meters
+	 */
+	public double getDistance(User other) {
+		return Coordinate.getDistance(getLat(), getLon(), other.getLat(), other.getLon());
+	}
+	
+	
+	/**
+	 * the unit vector on the plane of the map projection pointing from the user to the target of its path.
+	 * It is computed when it is first needed after the path changed and kept until the next change
+	 * @param projection projection of the map
+	 * @return false if the user is at the target and has no heading
+	 */
+	public boolean updateHeading(Projection projection) {
+		if (!headingknown) {
+			double vectorx = projection.getX(getTarget().getPosition()) - projection.getX(getLon());
+			double vectory = projection.getY(getTarget().getPosition()) - projection.getY(getLat());
+			double length = Math.sqrt(vectorx * vectorx + vectory * vectory);
+			headingx = (length == 0) ? 0 : vectorx / length;
+			headingy = (length == 0) ? 0 : vectory / length;
+			headingknown = true;
 		}
-		
-		for (int i = 0; i < clusters.size(); i++) {
-			SimNode n = clusters.get(i);
-			totalnodevalue += n.getClustervalue();
+		return headingx != 0 || headingy != 0;
+	}
+	
+	
+	/**
+	 * sets the heading kept from an earlier simulation, see updateHeading
+	 * @param headingx
+	 * @param headingy
+	 */
+	public void setHeading(double headingx, double headingy) {
+		this.headingx = headingx;
+		this.headingy = headingy;
+		this.headingknown = true;
+	}
+	
+	
+	/**
+	 * chooses a known cluster weighed by its cluster value, leaving out the cluster the user is at
+	 * @param rgen
+	 * @param overlay cluster values of the simulation
+	 * @return
+	 */
+	public SimNode getRandomKnowncluster(Random rgen, MapOverlay overlay) {
+		// the entries of the cluster the user is at get no weight while choosing
+		ArrayList<Integer> here = knownclusterentries.get(overlay.getMap().getNode(getPosition()));
+		double[] weights = null;
+		if (here != null) {
+			weights = new double[here.size()];
+			for (int i = 0; i < here.size(); i++) {
+				weights[i] = knownclustervalues.getWeight(here.get(i));
+				knownclustervalues.set(here.get(i), 0);
+			}
 		}
-		int x = (int) rgen.nextInt((int) totalnodevalue);// .RandomNumber(0, totalnodevalue);
-		
-		double counter = 0;
-		SimNode result = null;
-		for (int i = 0; counter <= x; i++) {
-			SimNode n = clusters.get(i);
-			counter += n.getClustervalue();
-			result = n;
+		try {
+			int x = rgen.nextInt((int) knownclustervalues.getTotal());
+			return knownclusters.get(knownclustervalues.find(x));
+		} finally {
+			if (here != null) {
+				for (int i = 0; i < here.size(); i++) {
+					knownclustervalues.set(here.get(i), weights[i]);
+				}
+			}
 		}
-		return result;
 	}
 	
 	
 	/**
 	 * 
-	 * @return
+	 * @return the sum of the cluster values of the known clusters
 	 */
 	public double getKnownClusterValue() {
-		double totalnodevalue = 0;
-		for (int i = 0; i < knownclusters.size(); i++) {
-			SimNode n = knownclusters.get(i);
-			totalnodevalue += n.getClustervalue();
-		}
-		return totalnodevalue;
+		return knownclustervalues.getTotal();
 	}
 	
 	/**
@@ -98,10 +178,10 @@ public class User {
 	 */
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		String s = "\n User " + usernumber + "\n" + "Position: " + position.toString() + "\n";
+		String s = "\n User " + usernumber + "\n" + "Position: " + getPosition().toString() + "\n";
 		sb.append(s);
-		if (path != null) {
-			 String s4 = "Path: " + path.size() + "; Ziel: " + path.get(path.size() - 1).getPosition().toString() + "\n";
+		if (path != null && !path.isEmpty()) {
+			 String s4 = "Path: " + getRemainingPathLength() + "; Ziel: " + getTarget().getPosition().toString() + "\n";
 			 sb.append(s4);
 		}
 		else {
@@ -126,41 +206,76 @@ public class User {
 	}
 	
 	public void increaseTradestopcounter(int increase) {
-		this.tradestopcounter += increase;
+		state.setTradestopcounter(slot, state.getTradestopcounter(slot) + increase);
 	}
 	
 	public void decreaseTradestopcounter() {
-		tradestopcounter--;
+		state.setTradestopcounter(slot, state.getTradestopcounter(slot) - 1);
 	}
 	
 	public void increaseWaitcounter(int increase) {
-		this.waitcounter += increase;
+		state.setWaitcounter(slot, state.getWaitcounter(slot) + increase);
 	}
 	
 	public void decreaseWaitcounter() {
-		waitcounter--;
+		state.setWaitcounter(slot, state.getWaitcounter(slot) - 1);
+	}
+	
+	public void decreaseWaitcounter(int decrease) {
+		state.setWaitcounter(slot, state.getWaitcounter(slot) - decrease);
 	}
 	
-	public void addKnownclusters(SimNode knowncluster) {
+	/**
+	 * adds a known cluster, a cluster that is already known is added again and chosen more often
+	 * @param knowncluster
+	 * @param overlay cluster values of the simulation
+	 */
+	public void addKnownclusters(SimNode knowncluster, MapOverlay overlay) {
 		this.knownclusters.add(knowncluster);
+		int index = knownclustervalues.add(overlay.getClustervalue(knowncluster));
+		ArrayList<Integer> entries = knownclusterentries.get(knowncluster);
+		if (entries == null) {
+			entries = new ArrayList<Integer>(1);
+			knownclusterentries.put(knowncluster, entries);
+		}
+		entries.add(index);
+	}
+	
+	public boolean isKnowncluster(SimNode node) {
+		return knownclusterentries.containsKey(node);
 	}
 	
 	// getters and setters
 	
 	public int getTradestopcounter() {
-		return tradestopcounter;
+		return state.getTradestopcounter(slot);
 	}
 	
 	public int getWaitcounter() {
-		return waitcounter;
+		return state.getWaitcounter(slot);
 	}
 	
+	/**
+	 * @return a copy of the position, use setLocation to move the user
+	 */
 	public Coordinate getPosition() {
-		return position;
+		return new Coordinate(getLat(), getLon());
 	}
 
 	public void setPosition(Coordinate position) {
-		this.position = position;
+		setLocation(position.getLat(), position.getLon());
+	}
+
+	public double getLat() {
+		return state.getLat(slot);
+	}
+
+	public double getLon() {
+		return state.getLon(slot);
+	}
+
+	public void setLocation(double lat, double lon) {
+		state.setLocation(slot, lat, lon);
 	}
 
 	public ArrayList<Paket> getPakets() {
@@ -203,19 +318,75 @@ public class User {
 		this.coveredDistanceasCarrier = coveredDistanceasCarrier;
 	}
 	
-	public ArrayList<SimNode> getPath() {
-		return path;
+	/**
+	 * @return the part of the path that hasn't been visited yet, backed by the path
+	 */
+	public List<SimNode> getPath() {
+		return path.subList(state.getPathcursor(slot), path.size());
+	}
+
+	/**
+	 * sets a new path to a target chosen by the movement algorithm, the path is not changed by the user and can be shared
+	 * @param path
+	 */
+	public void setPath(List<SimNode> path) {
+		setPath(path, INTENT_WAYPOINT);
 	}
 
-	public void setPath(ArrayList<SimNode> path) {
+	/**
+	 * sets a new path, which is not changed by the user and can be shared
+	 * @param path
+	 * @param intent why the user goes to the target of the path, one of the INTENT constants
+	 */
+	public void setPath(List<SimNode> path, int intent) {
 		this.path = path;
+		this.intent = intent;
+		this.headingknown = false;
+		state.setPathcursor(slot, 0);
+	}
+
+	/**
+	 * @param goal
+	 * @return true if the path already leads to the goal, so there is no need to search a path to it
+	 */
+	public boolean isHeadingFor(SimNode goal) {
+		return getTarget() == goal;
+	}
+
+	public int getIntent() {
+		return intent;
+	}
+
+	public boolean isHeadingKnown() {
+		return headingknown;
+	}
+
+	public double getHeadingX() {
+		return headingx;
+	}
+
+	public double getHeadingY() {
+		return headingy;
+	}
+
+	public Random getRandom() {
+		return random;
+	}
+
+	public void setRandom(Random random) {
+		this.random = random;
 	}
 
 	public ArrayList<SimNode> getKnownclusters() {
 		return knownclusters;
 	}
 
-	public void setKnownclusters(ArrayList<SimNode> knownclusters) {
-		this.knownclusters = knownclusters;
+	public void setKnownclusters(ArrayList<SimNode> knownclusters, MapOverlay overlay) {
+		this.knownclusters = new ArrayList<SimNode>();
+		this.knownclustervalues = new FenwickSampler();
+		this.knownclusterentries = new HashMap<SimNode, ArrayList<Integer>>();
+		for (int i = 0; i < knownclusters.size(); i++) {
+			addKnownclusters(knownclusters.get(i), overlay);
+		}
 	}
 }
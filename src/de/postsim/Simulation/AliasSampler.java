@@ -0,0 +1,89 @@
+package de.postsim.Simulation;
+
+import java.util.Random;
+
+/**
+ * Chooses an index with a probability proportional to its weight in constant time, using Vose's alias method.
+ * The weights can't change after the sampler is built, it is meant for the clusters of a simulation,
+ * which are chosen from many times but never change. The sampler is never changed by sample,
+ * so users moving in parallel can share it.
+ */
+public class AliasSampler {
+
+	private final double[] probability;		// probability to keep a column instead of taking its alias
+	private final int[] alias;				// index the rest of a column belongs to
+
+	/**
+	 * builds the sampler, at least one weight has to be positive
+	 * @param weights
+	 */
+	public AliasSampler(double[] weights) {
+		int n = weights.length;
+		probability = new double[n];
+		alias = new int[n];
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			total += weights[i];
+		}
+		if (n == 0 || !(total > 0)) {
+			throw new IllegalArgumentException("no positive weight to sample from");
+		}
+
+		// columns with less than the average weight are filled up by the ones with more
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallcount = 0;
+		int largecount = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1) {
+				small[smallcount++] = i;
+			}
+			else {
+				large[largecount++] = i;
+			}
+		}
+		while (smallcount > 0 && largecount > 0) {
+			int s = small[--smallcount];
+			int l = large[--largecount];
+			probability[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1;
+			if (scaled[l] < 1) {
+				small[smallcount++] = l;
+			}
+			else {
+				large[largecount++] = l;
+			}
+		}
+		// what is left over is full up to rounding errors
+		while (largecount > 0) {
+			int l = large[--largecount];
+			probability[l] = 1;
+			alias[l] = l;
+		}
+		while (smallcount > 0) {
+			int s = small[--smallcount];
+			probability[s] = 1;
+			alias[s] = s;
+		}
+	}
+
+
+	/**
+	 * chooses an index, using a single random number
+	 * @param random
+	 * @return
+	 */
+	public int sample(Random random) {
+		double x = random.nextDouble() * probability.length;
+		int column = Math.min((int) x, probability.length - 1);
+		return (x - column < probability[column]) ? column : alias[column];
+	}
+
+
+	public int size() {
+		return probability.length;
+	}
+}
@@ -0,0 +1,95 @@
+package de.postsim.Simulation;
+
+/**
+ * Weights of a growing list kept in a Fenwick tree, so adding or changing a weight, the sum of all weights
+ * and finding the entry a cumulated weight falls on all take logarithmic time.
+ * Entries are found in the order they were added, like by adding up the weights from the start of the list.
+ */
+public class FenwickSampler {
+
+	private double[] weights = new double[8];			// weight of every entry
+	private double[] tree = new double[9];				// partial sums, 1-based
+	private int size;									// number of entries
+	private double total;								// sum of all weights
+
+
+	/**
+	 * adds an entry at the end
+	 * @param weight
+	 * @return the index of the entry
+	 */
+	public int add(double weight) {
+		if (size == weights.length) {
+			grow();
+		}
+		int index = size++;
+		weights[index] = 0;
+		set(index, weight);
+		return index;
+	}
+
+
+	/**
+	 * changes the weight of an entry
+	 * @param index
+	 * @param weight
+	 */
+	public void set(int index, double weight) {
+		double delta = weight - weights[index];
+		weights[index] = weight;
+		total += delta;
+		// up to the capacity, so entries added later start with the right partial sums
+		for (int i = index + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+
+	/**
+	 * finds the entry a cumulated weight falls on
+	 * @param x between 0 and the total weight
+	 * @return the first entry at which the sum of the weights up to and including it is more than x
+	 */
+	public int find(double x) {
+		int position = 0;
+		for (int step = Integer.highestOneBit(size); step > 0; step >>= 1) {
+			int next = position + step;
+			if (next <= size && tree[next] <= x) {
+				position = next;
+				x -= tree[next];
+			}
+		}
+		return position;
+	}
+
+
+	/**
+	 * doubles the capacity, the tree is built anew because the partial sums depend on it
+	 */
+	private void grow() {
+		double[] grown = new double[2 * weights.length];
+		System.arraycopy(weights, 0, grown, 0, size);
+		weights = grown;
+		tree = new double[grown.length + 1];
+		for (int i = 1; i < tree.length; i++) {
+			tree[i] += weights[i - 1];
+			int parent = i + (i & -i);
+			if (parent < tree.length) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+
+
+	public double getWeight(int index) {
+		return weights[index];
+	}
+
+	public double getTotal() {
+		return total;
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,128 @@
+package de.postsim.Simulation;
+
+import de.postsim.Objects.Coordinate;
+import de.postsim.Objects.Projection;
+
+/**
+ * Predicts when moving objects get into or out of range of each other.
+ * While an object moves along one edge of its path it moves on a straight line, so the squared distance
+ * of two objects is a quadratic function of time and the moments it crosses the squared range are the roots of that function.
+ * Positions are converted into meters with the projection of the map, the same plane the range checks of the simulation use.
+ */
+class KineticContacts {
+
+	private final double range;											// range in meters
+	private final Projection projection;								// plane the objects move on
+
+	/**
+	 * @param range in meters
+	 * @param projection projection of the map
+	 */
+	KineticContacts(double range, Projection projection) {
+		this.range = range;
+		this.projection = projection;
+	}
+
+
+	/**
+	 * first moment two objects moving on straight lines are in range of each other
+	 * @param a0 position of the first object at time 0
+	 * @param a1 position of the first object at time 1
+	 * @param b0 position of the second object at time 0
+	 * @param b1 position of the second object at time 1
+	 * @return a time between 0 and 1, 1 if they are not in range earlier
+	 */
+	double getEntry(Coordinate a0, Coordinate a1, Coordinate b0, Coordinate b1) {
+		double dx = getX(a0) - getX(b0);
+		double dy = getY(a0) - getY(b0);
+		double vx = getX(a1) - getX(b1) - dx;
+		double vy = getY(a1) - getY(b1) - dy;
+		double c = dx * dx + dy * dy - range * range;
+		if (c < 0) {
+			return 0;
+		}
+		double a = vx * vx + vy * vy;
+		double b = 2 * (dx * vx + dy * vy);
+		double discriminant = b * b - 4 * a * c;
+		if (a == 0 || discriminant < 0) {
+			return 1;
+		}
+		double entry = (-b - Math.sqrt(discriminant)) / (2 * a);
+		return entry >= 0 && entry <= 1 ? entry : 1;
+	}
+
+
+	/**
+	 * last moment two objects moving on straight lines are in range of each other, if they are in range at time 0
+	 * @param a0 position of the first object at time 0
+	 * @param a1 position of the first object at time 1
+	 * @param b0 position of the second object at time 0
+	 * @param b1 position of the second object at time 1
+	 * @return a time between 0 and 1, 1 if they are still in range at time 1
+	 */
+	double getExit(Coordinate a0, Coordinate a1, Coordinate b0, Coordinate b1) {
+		double dx = getX(a0) - getX(b0);
+		double dy = getY(a0) - getY(b0);
+		double vx = getX(a1) - getX(b1) - dx;
+		double vy = getY(a1) - getY(b1) - dy;
+		double ex = dx + vx;
+		double ey = dy + vy;
+		if (ex * ex + ey * ey < range * range) {
+			return 1;
+		}
+		double a = vx * vx + vy * vy;
+		double b = 2 * (dx * vx + dy * vy);
+		double c = dx * dx + dy * dy - range * range;
+		double discriminant = b * b - 4 * a * c;
+		if (a == 0 || discriminant < 0) {
+			return 0;
+		}
+		double exit = (-b + Math.sqrt(discriminant)) / (2 * a);
+		return Math.min(1, Math.max(0, exit));
+	}
+
+
+	/**
+	 * number of whole cycles before an object moving with constant velocity relative to another one
+	 * could be within range plus margin of it
+	 * @param dx distance in meters between the objects along the longitude at cycle 0
+	 * @param dy distance in meters between the objects along the latitude at cycle 0
+	 * @param vx relative velocity in meters per cycle along the longitude
+	 * @param vy relative velocity in meters per cycle along the latitude
+	 * @param margin in meters
+	 * @return the number of cycles, 0 if they are within range plus margin at cycle 0 and Long.MAX_VALUE if they never are
+	 */
+	long getCyclesUntilRange(double dx, double dy, double vx, double vy, double margin) {
+		double reach = range + margin;
+		double c = dx * dx + dy * dy - reach * reach;
+		if (c < 0) {
+			return 0;
+		}
+		double a = vx * vx + vy * vy;
+		double b = 2 * (dx * vx + dy * vy);
+		double discriminant = b * b - 4 * a * c;
+		// the objects have to be getting closer, otherwise both roots are in the past
+		if (a == 0 || b >= 0 || discriminant < 0) {
+			return Long.MAX_VALUE;
+		}
+		double entry = (-b - Math.sqrt(discriminant)) / (2 * a);
+		return entry >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) Math.ceil(entry);
+	}
+
+
+	/**
+	 * @param position
+	 * @return the position on the plane along the longitude in meters
+	 */
+	double getX(Coordinate position) {
+		return projection.getX(position);
+	}
+
+	/**
+	 * @param position
+	 * @return the position on the plane along the latitude in meters
+	 */
+	double getY(Coordinate position) {
+		return projection.getY(position);
+	}
+}
@@ -0,0 +1,80 @@
+package de.postsim.Simulation;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import de.postsim.Objects.SimMap;
+import de.postsim.Objects.SimNode;
+
+/**
+ * State a simulation keeps about the nodes of its map: how often they have been visited and their cluster values.
+ * The SimMap itself is never changed by a simulation, so one map can be shared by several simulations,
+ * each of them with its own overlay. Values are stored by the index of the node in the road graph.
+ */
+public class MapOverlay {
+
+	private final SimMap map;
+	private final AtomicIntegerArray timesvisited;		// the number of times a node has been visited by a user
+	private final double[] clustervalues;				// used to denote clusters for SMOOTH algorithm
+
+	/**
+	 * constructs an overlay without visits and clusters
+	 * @param map
+	 */
+	public MapOverlay(SimMap map) {
+		this.map = map;
+		this.timesvisited = new AtomicIntegerArray(map.getNodeCount());
+		this.clustervalues = new double[map.getNodeCount()];
+	}
+
+
+	/**
+	 * counts a visit of a node, users moving in parallel can visit the same node
+	 * @param node
+	 */
+	public void increaseTimesvisited(SimNode node) {
+		timesvisited.incrementAndGet(node.getIndex());
+	}
+
+	public int getTimesvisited(SimNode node) {
+		return node.getIndex() < 0 ? 0 : timesvisited.get(node.getIndex());
+	}
+
+
+	/**
+	 *
+	 * @return the amount of times the node with the least visits was visited
+	 */
+	public int getMinTimesVisited() {
+		int result = Integer.MAX_VALUE;
+		for (int i = 0; i < timesvisited.length(); i++) {
+			result = Math.min(result, timesvisited.get(i));
+		}
+		return result;
+	}
+
+
+	/**
+	 *
+	 * @return the amount of times the node with the most visits was visited
+	 */
+	public int getMaxTimesVisited() {
+		int result = 0;
+		for (int i = 0; i < timesvisited.length(); i++) {
+			result = Math.max(result, timesvisited.get(i));
+		}
+		return result;
+	}
+
+
+	public double getClustervalue(SimNode node) {
+		return node.getIndex() < 0 ? 0 : clustervalues[node.getIndex()];
+	}
+
+	public void setClustervalue(SimNode node, double clustervalue) {
+		clustervalues[node.getIndex()] = clustervalue;
+	}
+
+	public SimMap getMap() {
+		return map;
+	}
+}
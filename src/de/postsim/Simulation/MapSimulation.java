@@ -1,16 +1,38 @@
 package de.postsim.Simulation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import de.postsim.IO.CSVLogging;
+import de.postsim.IO.CheckpointFile;
+import de.postsim.IO.TraceReader;
 import de.postsim.ContactGraph.ContactGraph;
 import de.postsim.Objects.Coordinate;
 import de.postsim.Objects.Paket;
+import de.postsim.Objects.Projection;
 import de.postsim.Objects.SimMap;
 import de.postsim.Objects.SimNode;
 import de.postsim.Objects.User;
@@ -25,7 +47,9 @@ public class MapSimulation {
 	private final String simID;
 	private final Random rgen;
 	private SimMap map;
+	private MapOverlay overlay;														// visits and cluster values of the nodes in this simulation
 	private ArrayList<User> users = new ArrayList<User>();							// list of users
+	private UserState userstate;													// positions, counters and path cursors of the users
 	private ArrayList<Paket> pakets = new ArrayList<Paket>();						// list of non-delivered pakets
 	private ArrayList<Paket> deliveredpakets = new ArrayList<Paket>();				// list of delivered pakets
 	private double speed = 1.4; 													// the speed of a user in m/s
@@ -37,11 +61,51 @@ public class MapSimulation {
 	private int movementalgorithm = RANDOM_WAYPOINT;								// movement algorithms
 	public static final int RANDOM_WAYPOINT = 1;
 	public static final int CLUSTER_WAYPOINT = 2;
+	public static final int TRACE_REPLAY = 3;
 	private ArrayList<SimNode> clusternodes = new ArrayList<SimNode>();
 					// nodes that are cluster in the cluster_waypoint algorithm
+	private AliasSampler clustersampler;											// chooses clusternodes by their cluster value, null until the clusters are known
 	private String mapname;
 	private CSVLogging logger;														// logging object
 	private ContactGraph graph;
+	private SpatialGrid<User> usergrid;												// grid of all users with cells the size of the bluetoothrange
+	private SpatialGrid<Paket> freepaketgrid;										// grid of the pakets without carrier, same cells as the usergrid
+	private KineticContacts kinetics;												// exact contact times between the cycles
+	private Coordinate[] lastpositions;												// positions of the users before the last movement
+	private double[] userx;															// positions of the users on the plane of the map projection
+	private double[] usery;															// in meters, taken at the start of a cycle
+	private double[] paketdestx;													// destinations of the pakets on the plane, by paketnumber - 1
+	private double[] paketdesty;
+	private final RangeKernel rangekernel = RangeKernel.getInstance();				// range tests of a user against many candidates
+	private ArrayList<User>[] contacts;												// users in range of every user in the current cycle
+	private WakeupQueue waiting = new WakeupQueue();								// users waiting without trading, not visited by the movement
+	private ForkJoinPool pool;														// threads for a parallel simulation_step, null if it runs sequentially
+	private TraceReader trace;														// movements replayed by the users, null if they follow a movement algorithm
+	private HashMap<Integer, User> traceusers;										// users by their id in the trace
+	private double tracestart;														// time in the trace at cycle 0, in seconds
+	private boolean tracepending;													// the current position of the trace is not replayed yet
+	private CheckpointFile checkpoints;												// file the checkpoints are written into, null if there are none
+	private long checkpointinterval;												// cycles between two checkpoints
+	private long nextcheckpoint;													// cycle from which on the next checkpoint is written
+	private CheckpointFile restoredfrom;											// file the simulation was restored from, checkpoints into it continue its journal
+
+	private static final int CHECKPOINT_MAGIC = 0x53434b50;						// "SCKP"
+	private static final int CHECKPOINT_VERSION = 4;
+	private static final int QUIET_CELL_USERS = 8;								// users per cell of the grid in getQuietCycles on average
+
+	// orders users by their usernumber, which is the order of the users list
+	private static final Comparator<User> USERNUMBER_ORDER = new Comparator<User>() {
+		public int compare(User u, User u2) {
+			return Integer.compare(u.getUsernumber(), u2.getUsernumber());
+		}
+	};
+
+	// orders pakets by their paketnumber, which is the order of the pakets list
+	private static final Comparator<Paket> PAKETNUMBER_ORDER = new Comparator<Paket>() {
+		public int compare(Paket p, Paket p2) {
+			return Integer.compare(p.getPaketnumber(), p2.getPaketnumber());
+		}
+	};
 
 	private static final Logger log = Logger.getLogger(MapSimulation.class.getName());
 	
@@ -69,8 +133,9 @@ public class MapSimulation {
 	 * @param numberofusers
 	 * @param numberofpakets
 	 * @param bluetoothrange in m
-	 * @param movementalgorithm 1 = RandomWayPoint; 2 = ClusterWayPoint
+	 * @param movementalgorithm 1 = RandomWayPoint; 2 = ClusterWayPoint, TRACE_REPLAY has its own constructor
 	 * @param tradeDelay tradeDelay for Users in SimulationCycles
+	 * @throws IllegalArgumentException if movementalgorithm is neither RANDOM_WAYPOINT nor CLUSTER_WAYPOINT
 	 */
 	public MapSimulation(SimMap map,
 						 Random rgen,
@@ -79,6 +144,7 @@ public class MapSimulation {
 						 String mapname) {
 	this.mapname = mapname;
 	this.rgen = rgen;
+	this.userstate = new UserState(numberofusers);
 
 		setMap(map);
 		switch(movementalgorithm) {
@@ -89,22 +155,188 @@ public class MapSimulation {
 				initClusterWaypointSim(numberofusers, numberofpakets);
 				break;
 			default:
-				System.out.println("error no movement algorithm");
+				// TRACE_REPLAY needs a trace, see the constructor taking a trace file
+				throw new IllegalArgumentException("no movement algorithm " + movementalgorithm);
 		}
 		
 		setBluetoothrange(bluetoothrange);
+		buildUserGrid();
+		projectPaketDestinations();
 		setMovementalgorithm(movementalgorithm);
 		setActualspeed((speed / 1000) * steptime);
 		setTradeDelay(tradeDelay);
 		
-		// building the name of our logfile
-		Calendar cal = Calendar.getInstance();
-    	cal.getTime();
-    	SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy 'at' HH.mm.ss");
-		this.simID = sdf.format(cal.getTime()) + " U" + numberofusers + "_P" + numberofpakets;
+		this.simID = buildSimID(numberofusers, numberofpakets);
 		logger = new CSVLogging(mapname + "_" + simID + ".csv");
         graph = new ContactGraph();
 	}
+	
+	
+	/**
+	 * a simulation in which the users replay the movements of a trace instead of following a movement algorithm.
+	 * There is a user for every id in the trace, which waits at its first position until the trace gets there.
+	 * The pakets are placed on random nodes like in RandomWayPoint. Users can't change their way to pick up or deliver pakets,
+	 * so having a paket or its destination in bluetoothrange counts as reaching it
+	 * @param map the map the trace was recorded on
+	 * @param rgen
+	 * @param tracefile see TraceReader for the formats
+	 * @param numberofpakets
+	 * @param bluetoothrange in m
+	 * @param tradeDelay tradeDelay for Users in SimulationCycles
+	 * @param mapname
+	 * @throws IOException if the trace can't be read
+	 */
+	public MapSimulation(SimMap map, Random rgen, File tracefile, int numberofpakets, int bluetoothrange, int tradeDelay,
+			String mapname) throws IOException {
+		this.mapname = mapname;
+		this.rgen = rgen;
+		setMap(map);
+		// the trace is read twice, once for the users and once while replaying it
+		TreeMap<Integer, Coordinate> starts = TraceReader.readStartPositions(tracefile, map);
+		this.userstate = new UserState(starts.size());
+		this.traceusers = new HashMap<Integer, User>();
+		for (Map.Entry<Integer, Coordinate> start : starts.entrySet()) {
+			User u = new User(userstate, start.getValue(), new ArrayList<SimNode>(), users.size() + 1);
+			// no heading until the user moves
+			u.setHeading(0, 0);
+			users.add(u);
+			traceusers.put(start.getKey(), u);
+		}
+		initRandomPakets(numberofpakets);
+		this.trace = new TraceReader(tracefile, map);
+		this.tracepending = trace.next();
+		this.tracestart = tracepending ? trace.getTime() : 0;
+
+		setBluetoothrange(bluetoothrange);
+		buildUserGrid();
+		projectPaketDestinations();
+		setMovementalgorithm(TRACE_REPLAY);
+		setActualspeed((speed / 1000) * steptime);
+		setTradeDelay(tradeDelay);
+		this.simID = buildSimID(users.size(), numberofpakets);
+		logger = new CSVLogging(mapname + "_" + simID + ".csv");
+		graph = new ContactGraph();
+	}
+	
+	
+	/**
+	 * building the name of our logfile
+	 * @param numberofusers
+	 * @param numberofpakets
+	 * @return
+	 */
+	private static String buildSimID(int numberofusers, int numberofpakets) {
+		Calendar cal = Calendar.getInstance();
+		SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy 'at' HH.mm.ss");
+		return sdf.format(cal.getTime()) + " U" + numberofusers + "_P" + numberofpakets;
+	}
+
+
+	/**
+	 * restores a simulation from a checkpoint, see getCheckpoint
+	 * @param map the map the checkpoint was taken on
+	 * @param in
+	 * @throws IOException if the checkpoint is broken or doesn't fit the map
+	 */
+	private MapSimulation(SimMap map, DataInputStream in) throws IOException {
+		if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+			throw new IOException("not a checkpoint of this version");
+		}
+		if (in.readInt() != map.getNodeCount()) {
+			throw new IOException("checkpoint was taken on another map");
+		}
+		setMap(map);
+		this.mapname = in.readUTF();
+		this.simID = in.readUTF();
+		this.speed = in.readDouble();
+		this.steptime = in.readInt();
+		this.actualspeed = in.readDouble();
+		this.bluetoothrange = in.readInt();
+		this.tradeDelay = in.readInt();
+		this.movementalgorithm = in.readInt();
+		this.cycles = in.readLong();
+		this.rgen = readRandom(in);
+		int threads = in.readInt();
+		if (threads > 0) {
+			pool = new ForkJoinPool(threads);
+		}
+
+		// nodes
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			SimNode n = map.getNodeByIndex(in.readInt());
+			overlay.setClustervalue(n, in.readDouble());
+			addClusternode(n);
+		}
+		if (count > 0) {
+			buildClusterSampler();
+		}
+		for (int i = 0; i < map.getNodeCount(); i++) {
+			for (int visits = in.readInt(); visits > 0; visits--) {
+				overlay.increaseTimesvisited(map.getNodeByIndex(i));
+			}
+		}
+
+		// pakets, their carriers are set with the users
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			pakets.add(readPaket(in));
+		}
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			deliveredpakets.add(readPaket(in));
+		}
+		HashMap<Integer, Paket> paketnumbers = new HashMap<Integer, Paket>();
+		for (Paket p : pakets) {
+			paketnumbers.put(p.getPaketnumber(), p);
+		}
+
+		// users
+		count = in.readInt();
+		this.userstate = new UserState(count);
+		lastpositions = new Coordinate[count];
+		for (int i = 0; i < count; i++) {
+			Coordinate position = new Coordinate(in.readDouble(), in.readDouble());
+			int tradestopcounter = in.readInt();
+			int waitcounter = in.readInt();
+			long parkedsince = in.readLong();
+			ArrayList<SimNode> path = new ArrayList<SimNode>();
+			for (int n = in.readInt(); n > 0; n--) {
+				path.add(map.getNodeByIndex(in.readInt()));
+			}
+			User u = new User(userstate, position, path, i + 1);
+			u.setPath(path, in.readInt());
+			if (in.readBoolean()) {
+				u.setHeading(in.readDouble(), in.readDouble());
+			}
+			userstate.setTradestopcounter(i, tradestopcounter);
+			userstate.setWaitcounter(i, waitcounter);
+			if (parkedsince >= 0) {
+				// the waitcounter of a parked user is counted down when it is unparked
+				waiting.park(i, parkedsince, parkedsince + waitcounter);
+			}
+			for (int n = in.readInt(); n > 0; n--) {
+				Paket p = paketnumbers.get(in.readInt());
+				u.addPaket(p);
+				p.setCarrier(u);
+			}
+			u.setCoveredDistance(in.readDouble());
+			u.setCoveredDistanceasCarrier(in.readDouble());
+			for (int n = in.readInt(); n > 0; n--) {
+				u.addKnownclusters(map.getNodeByIndex(in.readInt()), overlay);
+			}
+			if (in.readBoolean()) {
+				u.setRandom(new SplitMixRandom(in.readLong(), in.readLong()));
+			}
+			lastpositions[i] = new Coordinate(in.readDouble(), in.readDouble());
+			users.add(u);
+		}
+		long loglength = in.readLong();
+		graph = ContactGraph.readCheckpoint(in, users);
+		buildUserGrid();
+		projectPaketDestinations();
+		logger = new CSVLogging(mapname + "_" + simID + ".csv", loglength);
+	}
 
 
     /**
@@ -115,22 +347,31 @@ public class MapSimulation {
 	private void initRandomWaypointSim(int numberofusers, int numberofpackets) {
 		for (int i = 0; i < numberofusers; i++) {
 			// create user with random starting location and random starting target
-			SimNode startNode = map.getRandomNode();
+			SimNode startNode = map.getRandomNode(rgen);
 			Coordinate start = new Coordinate(startNode.getPosition().getLat(),startNode.getPosition().getLon());
 			ArrayList<SimNode> path = new ArrayList<SimNode>();
-			SimNode startTarget = map.getRandomNode();
+			SimNode startTarget = map.getRandomNode(rgen);
 			path = map.getPath(map.getNode(start), startTarget);
 			if (path == null || path.size() == 0) {
 				path = new ArrayList<SimNode>();
 				path.add(map.getNode(start));
 			}
-			User u = new User(start, path,(i+1));
+			User u = new User(userstate, start, path, (i+1));
 			users.add(u);
 		}
+		initRandomPakets(numberofpackets);
+	}
+	
+	
+	/**
+	 * places pakets with random starting locations and destinations
+	 * @param numberofpackets
+	 */
+	private void initRandomPakets(int numberofpackets) {
 		for (int i = 0; i < numberofpackets; i++) {
 			// create paket with random starting location and random destinatio
-			SimNode random = map.getRandomNode();
-			SimNode random2 = map.getRandomNode();
+			SimNode random = map.getRandomNode(rgen);
+			SimNode random2 = map.getRandomNode(rgen);
 			Paket p = new Paket(new Coordinate(random.getPosition().getLat(),random.getPosition().getLon()),
 					new Coordinate(random2.getPosition().getLat(),random2.getPosition().getLon()),(i+1));
 			pakets.add(p);
@@ -156,9 +397,9 @@ public class MapSimulation {
 			while (path == null || path.size() == 0) {
 				path = map.getPath(map.getNode(start), getRandomClusterNode());
 			}
-			User u = new User(start, path,(i+1));
-			u.addKnownclusters(clusternode);
-			u.addKnownclusters(u.getPath().get(u.getPath().size() - 1));
+			User u = new User(userstate, start, path, (i+1));
+			u.addKnownclusters(clusternode, overlay);
+			u.addKnownclusters(u.getTarget(), overlay);
 			users.add(u);
 		}
 		for (int i = 0; i < numberofpackets; i++) {
@@ -188,26 +429,42 @@ public class MapSimulation {
 		}
 				
 		while (getClusternodes().size() < smallclusters) {
-			SimNode n = map.getRandomNode();
-			if (!getClusternodes().contains(n)) {
-				n.setClustervalue(1);
+			SimNode n = map.getRandomNode(rgen);
+			// nodes without a cluster value aren't clusters yet
+			if (overlay.getClustervalue(n) == 0) {
+				overlay.setClustervalue(n, 1);
 				addClusternode(n);
 			}
 		}
 		while (getClusternodes().size() < (smallclusters+mediumclusters)) {
-			SimNode n = map.getRandomNode();
-			if (!getClusternodes().contains(n)) {
-				n.setClustervalue(2);
+			SimNode n = map.getRandomNode(rgen);
+			// nodes without a cluster value aren't clusters yet
+			if (overlay.getClustervalue(n) == 0) {
+				overlay.setClustervalue(n, 2);
 				addClusternode(n);
 			}
 		}
 		while (getClusternodes().size() < (numberofclusters)) {
-			SimNode n = map.getRandomNode();
-			if (!getClusternodes().contains(n)) {
-				n.setClustervalue(4);
+			SimNode n = map.getRandomNode(rgen);
+			// nodes without a cluster value aren't clusters yet
+			if (overlay.getClustervalue(n) == 0) {
+				overlay.setClustervalue(n, 4);
 				addClusternode(n);
 			}
 		}
+		buildClusterSampler();
+	}
+	
+	
+	/**
+	 * builds the sampler for choosing cluster nodes once the clusters are known, their values don't change afterwards
+	 */
+	private void buildClusterSampler() {
+		double[] weights = new double[clusternodes.size()];
+		for (int i = 0; i < clusternodes.size(); i++) {
+			weights[i] = overlay.getClustervalue(clusternodes.get(i));
+		}
+		clustersampler = new AliasSampler(weights);
 	}
 	
 	/**
@@ -215,21 +472,19 @@ public class MapSimulation {
 	 * @return
 	 */
 	private SimNode getRandomClusterNode() {
-		double totalnodevalue = 0;
-		for (int i = 0; i < getClusternodes().size(); i++) {
-			SimNode n = getClusternodes().get(i);
-			totalnodevalue += n.getClustervalue();
-		}
-		int x = (int) map.RandomNumber(0, totalnodevalue);
-		
-		double counter = 0;
-		SimNode result = null;
-		for (int i = 0; counter <= x; i++) {
-			SimNode n = getClusternodes().get(i);
-			counter += n.getClustervalue();
-			result = n;
+		return getRandomClusterNode(rgen);
+	}
+
+	/**
+	 *
+	 * @param random
+	 * @return
+	 */
+	private SimNode getRandomClusterNode(Random random) {
+		if (clustersampler == null) {
+			buildClusterSampler();
 		}
-		return result;
+		return clusternodes.get(clustersampler.sample(random));
 	}
 	
 
@@ -242,65 +497,508 @@ public class MapSimulation {
 	 * For Users in range to make a negotiation
 	 */
 	public void simulation_step() {
+		advanceCycle();
+		checkpointIfDue();
+	}
+	
+	
+	/**
+	 * the cycle of simulation_step without writing a checkpoint
+	 */
+	private void advanceCycle() {
+		projectUsers();
 		checkForCarrierlessPakets();
 		checkForDeliverablePakets();
 		checkForNegotiations();
-		// move all Users
+		moveUsers();
+		// the users move on straight lines during the cycle, so the moment a contact ends can be calculated
 		for (int i = 0; i < users.size(); i++) {
 			User u = users.get(i);
-			if (u.getTradestopcounter() <= 0) {
-				if (u.getWaitcounter() <= 0) {
-					moveUser(u, actualspeed);
+			for (int i2 = 0; i2 < contacts[i].size(); i2++) {
+				User u2 = contacts[i].get(i2);
+				if (u.getUsernumber() < u2.getUsernumber()) {
+					double exit = kinetics.getExit(lastpositions[i], u.getPosition(),
+							lastpositions[u2.getUsernumber() - 1], u2.getPosition());
+					graph.setContactEnd(u, u2, cycles + exit);
 				}
-				else {
-					u.decreaseWaitcounter();
+			}
+		}
+		cycles++;
+	}
+	
+	
+	/**
+	 * advances the simulation by up to maxcycles cycles at once. As long as no users can get into range of each other,
+	 * of pakets without carrier or of the destinations of their pakets, the checks of simulation_step can't change anything,
+	 * so only the users are moved. Until a user reaches the next node of its path or stops waiting it moves with constant velocity,
+	 * which is used to predict the first cycle with something in range. If something is in range already, this is a normal simulation_step
+	 * @param maxcycles
+	 * @return the number of cycles advanced
+	 */
+	public long simulation_advance(long maxcycles) {
+		// where users replaying a trace go can't be predicted
+		long quietcycles = (trace != null) ? 0 : getQuietCycles(maxcycles);
+		if (quietcycles <= 0) {
+			advanceCycle();
+			quietcycles = 1;
+		}
+		else {
+			for (long i = 0; i < quietcycles; i++) {
+				moveUsers();
+				cycles++;
+			}
+		}
+		checkpointIfDue();
+		return quietcycles;
+	}
+	
+	
+	/**
+	 * predicts the number of cycles from now on in which the checks of simulation_step won't find anything in range.
+	 * The prediction is made anew on every call, only for users near enough to each other to get into range before the horizon.
+	 * The horizon is limited, so that the grid used for finding them holds a few users per cell on average
+	 * @param maxcycles
+	 * @return the number of cycles, at most maxcycles
+	 */
+	private long getQuietCycles(long maxcycles) {
+		int n = users.size();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] vx = new double[n];
+		double[] vy = new double[n];
+		long quietcycles = maxcycles;
+		for (int i = 0; i < n && quietcycles > 0; i++) {
+			User u = users.get(i);
+			x[i] = kinetics.getX(u.getPosition());
+			y[i] = kinetics.getY(u.getPosition());
+			int waitcounter = u.getWaitcounter();
+			if (waiting.isParked(i)) {
+				waitcounter -= (int) (cycles - waiting.getParkedSince(i));
+			}
+			if (u.getTradestopcounter() > 0 || waitcounter > 0) {
+				// standing still until trading and waiting are over
+				quietcycles = Math.min(quietcycles, u.getTradestopcounter() + Math.max(0, waitcounter));
+			}
+			else {
+				// moving towards the next node of the path, arriving there changes the direction
+				Coordinate target = u.getNextNode().getPosition();
+				double distance = u.getDistance(target);
+				quietcycles = Math.min(quietcycles, Math.max(0, (long) (distance / actualspeed) - 1));
+				double dx = kinetics.getX(target) - x[i];
+				double dy = kinetics.getY(target) - y[i];
+				double length = Math.sqrt(dx * dx + dy * dy);
+				if (length > 0) {
+					vx[i] = dx / length * actualspeed;
+					vy[i] = dy / length * actualspeed;
+				}
+			}
+		}
+		// users move their speed in meters on the earth, which is not exactly the same distance on the plane,
+		// a margin keeps the prediction on the safe side
+		double margin = 1 + bluetoothrange * 1e-3;
+		double reach = bluetoothrange + margin;
+		Projection projection = map.getProjection();
+		double area = Math.abs((projection.getX(map.getRightBound()) - projection.getX(map.getLeftBound()))
+				* (projection.getY(map.getTopBound()) - projection.getY(map.getBottomBound())));
+		double maxcellsize = Math.max(reach, Math.sqrt(QUIET_CELL_USERS * area / Math.max(1, n)));
+		quietcycles = Math.min(quietcycles, (long) ((maxcellsize - reach) / (2 * actualspeed)));
+		if (quietcycles <= 0) {
+			return 0;
+		}
+		// two users get closer by at most twice the speed per cycle, users farther apart than that over the horizon
+		// and reach can't get into range before it, they are not in neighbouring cells of the grid
+		double referencelatitude = Math.max(Math.abs(map.getTopBound()), Math.abs(map.getBottomBound()));
+		SpatialGrid<User> neargrid = new SpatialGrid<User>(reach + 2 * actualspeed * quietcycles, referencelatitude);
+		for (int i = 0; i < n; i++) {
+			neargrid.put(users.get(i), users.get(i).getPosition());
+		}
+		ArrayList<User> near = new ArrayList<User>();
+		for (int i = 0; i < n && quietcycles > 0; i++) {
+			User u = users.get(i);
+			near.clear();
+			neargrid.getNeighbours(u.getPosition(), near);
+			for (int i3 = 0; i3 < near.size() && quietcycles > 0; i3++) {
+				int i2 = near.get(i3).getUsernumber() - 1;
+				if (i2 > i) {
+					quietcycles = Math.min(quietcycles, kinetics.getCyclesUntilRange(x[i] - x[i2], y[i] - y[i2],
+							vx[i] - vx[i2], vy[i] - vy[i2], margin));
+				}
+			}
+			for (int i2 = 0; i2 < u.getPakets().size() && quietcycles > 0; i2++) {
+				Coordinate destination = u.getPakets().get(i2).getDestination();
+				quietcycles = Math.min(quietcycles, kinetics.getCyclesUntilRange(x[i] - kinetics.getX(destination),
+						y[i] - kinetics.getY(destination), vx[i], vy[i], margin));
+			}
+		}
+		for (int i = 0; i < pakets.size() && quietcycles > 0; i++) {
+			Paket p = pakets.get(i);
+			if (p.getCarrier() == null) {
+				double px = kinetics.getX(p.getPosition());
+				double py = kinetics.getY(p.getPosition());
+				near.clear();
+				neargrid.getNeighbours(p.getPosition(), near);
+				for (int i3 = 0; i3 < near.size() && quietcycles > 0; i3++) {
+					int i2 = near.get(i3).getUsernumber() - 1;
+					quietcycles = Math.min(quietcycles, kinetics.getCyclesUntilRange(x[i2] - px, y[i2] - py, vx[i2], vy[i2], margin));
+				}
+			}
+		}
+		return quietcycles;
+	}
+	
+	
+	/**
+	 * moves all users that are not parked, counts down their trade stops and waits and parks the ones that start waiting
+	 */
+	private void moveUsers() {
+		if (lastpositions == null) {
+			lastpositions = new Coordinate[users.size()];
+			for (int i = 0; i < users.size(); i++) {
+				lastpositions[i] = new Coordinate(0, 0);
+			}
+		}
+		for (int i = 0; i < users.size(); i++) {
+			lastpositions[i].setLat(users.get(i).getLat());
+			lastpositions[i].setLon(users.get(i).getLon());
+		}
+		if (trace != null) {
+			replayTrace();
+			return;
+		}
+		// wake up the users whose wait ends in this cycle
+		for (int i = waiting.nextWakeup(cycles); i >= 0; i = waiting.nextWakeup(cycles)) {
+			unparkUser(users.get(i));
+		}
+		final int[] active = new int[users.size()];
+		int activecount = 0;
+		for (int i = waiting.nextActive(0); i < users.size(); i = waiting.nextActive(i + 1)) {
+			active[activecount++] = i;
+		}
+		// move all Users, a user only changes itself and the pakets it carries
+		forEach(activecount, new IndexAction() {
+			public void run(int i) {
+				User u = users.get(active[i]);
+				if (u.getTradestopcounter() <= 0) {
+					if (u.getWaitcounter() <= 0) {
+						moveUser(u, actualspeed);
+					}
+					else {
+						u.decreaseWaitcounter();
+					}
+				} else {
+					u.decreaseTradestopcounter();
 				}
-			} else {
+			}
+		});
+		for (int i = 0; i < activecount; i++) {
+			User u = users.get(active[i]);
+			// the grid is not thread-safe, so it is updated afterwards
+			usergrid.put(u, u.getLat(), u.getLon());
+			// users that only count down their waitcounter in the next cycles are parked until it runs out
+			if (u.getTradestopcounter() <= 0 && u.getWaitcounter() > 0) {
+				waiting.park(active[i], cycles + 1, cycles + 1 + u.getWaitcounter());
+			}
+		}
+	}
+	
+	
+	/**
+	 * moves the users to their positions in the trace at the end of this cycle.
+	 * Users replaying a trace move as recorded, trading only stops them from trading again
+	 */
+	private void replayTrace() {
+		double until = tracestart + (cycles + 1) * steptime / 1000.0;
+		try {
+			while (tracepending && trace.getTime() <= until) {
+				User u = traceusers.get(trace.getId());
+				if (u != null) {
+					moveTraceUser(u, trace.getLat(), trace.getLon());
+				}
+				tracepending = trace.next();
+			}
+		} catch (IOException e) {
+			// the users stop where they are
+			log.log(Level.SEVERE, "replaying the trace stopped", e);
+			tracepending = false;
+		}
+		for (int i = 0; i < users.size(); i++) {
+			User u = users.get(i);
+			if (u.getTradestopcounter() > 0) {
 				u.decreaseTradestopcounter();
 			}
+			usergrid.put(u, u.getLat(), u.getLon());
 		}
-		cycles++;
 	}
 	
 	
 	/**
-	 * checks if there are pakets without carriers to pick up in range of any user
+	 * moves a user replaying a trace to its next position
+	 * @param u
+	 * @param lat
+	 * @param lon
 	 */
-	private void checkForCarrierlessPakets() {
-		// looking for pakets without carriers in range of the users
+	private void moveTraceUser(User u, double lat, double lon) {
+		double distance = Coordinate.getDistance(u.getLat(), u.getLon(), lat, lon);
+		if (distance == 0) {
+			return;
+		}
+		// the heading of a user replaying a trace is the direction it moved last
+		Projection projection = map.getProjection();
+		double vectorx = projection.getX(lon) - projection.getX(u.getLon());
+		double vectory = projection.getY(lat) - projection.getY(u.getLat());
+		double length = Math.sqrt(vectorx * vectorx + vectory * vectory);
+		if (length > 0) {
+			u.setHeading(vectorx / length, vectory / length);
+		}
+		u.setLocation(lat, lon);
+		
+		// increase coveredDistance for our user and all their pakets
+		u.setCoveredDistance(u.getCoveredDistance() + distance);
+		if(u.getPakets().size() > 0) {
+			u.setCoveredDistanceasCarrier(u.getCoveredDistanceasCarrier() + distance);
+		}
+		for (int i = 0; i < u.getPakets().size(); i++) {
+			Paket p = u.getPakets().get(i);
+			p.setPosition(u.getPosition());
+			p.setCoveredDistance(p.getCoveredDistance() + distance);
+		}
+	}
+	
+	
+	/**
+	 * waits for the last checkpoint, stops the threads of a parallel step, stops replaying a trace and closes the log file.
+	 * The simulation can't go on afterwards
+	 * @throws java.io.UncheckedIOException if the log file couldn't be written
+	 */
+	public void close() {
+		try {
+			stopCheckpointing();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "last checkpoint couldn't be written", e);
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+		if (trace != null) {
+			trace.close();
+			trace = null;
+			tracepending = false;
+		}
+		logger.close();
+	}
+	
+	
+	/**
+	 * projects the positions of all users onto the plane of the map, for the range checks of a cycle.
+	 * Reads the positions straight from the arrays of the user state, where the slot of a user is its index
+	 */
+	private void projectUsers() {
+		if (userx == null || userx.length != users.size()) {
+			userx = new double[users.size()];
+			usery = new double[users.size()];
+		}
+		Projection projection = map.getProjection();
+		double[] lat = userstate.getLatArray();
+		double[] lon = userstate.getLonArray();
+		for (int i = 0; i < users.size(); i++) {
+			userx[i] = projection.getX(lon[i]);
+			usery[i] = projection.getY(lat[i]);
+		}
+	}
+	
+	
+	/**
+	 * range check on the plane of the map, without trigonometric functions
+	 * @param i index of a user in the users list
+	 * @param position
+	 * @return true if the position is within bluetoothrange of the user
+	 */
+	private boolean isInRange(int i, Coordinate position) {
+		double dx = userx[i] - map.getProjection().getX(position);
+		double dy = usery[i] - map.getProjection().getY(position);
+		return dx * dx + dy * dy < getSquaredRange();
+	}
+	
+	
+	private double getSquaredRange() {
+		return (double) bluetoothrange * bluetoothrange;
+	}
+	
+	
+	/**
+	 * projects the destinations of the pakets onto the plane of the map, they don't change while the pakets travel
+	 */
+	private void projectPaketDestinations() {
+		int count = 0;
+		for (int i = 0; i < pakets.size(); i++) {
+			count = Math.max(count, pakets.get(i).getPaketnumber());
+		}
+		paketdestx = new double[count];
+		paketdesty = new double[count];
+		Projection projection = map.getProjection();
 		for (int i = 0; i < pakets.size(); i++) {
 			Paket p = pakets.get(i);
-			if (p.getCarrier() == null) {
-				for (int i2 = 0; i2 < users.size(); i2++) {
-					User u = users.get(i2);
-					if (u.getPosition().getDistance(p.getPosition()) < bluetoothrange) {
-						if (u.getPosition().getLat() == p.getPosition().getLat() && u.getPosition().getLon() == p.getPosition().getLon() && p.getCarrier() == null) {
-							// if you are at the pakets position, pick it up
-							u.addPaket(p);
-							p.setCarrier(u);
-
-							// logging
-							ArrayList<String[]> paketadd = new ArrayList<String[]>();
-							String s1 = "User " + u.getUsernumber();
-							String s2 = "Paket " + p.getPaketnumber();
-							paketadd.add(new String[] { String.valueOf(cycles), s1, s2, u.getPosition().toString(), "Free Paket added" });
-							logger.write(paketadd);
-						} else {
-							// if you are not at the pakets position, move towards it
-							ArrayList<SimNode> path = new ArrayList<SimNode>();
-							SimNode temp = u.getPath().get(0);
-							path = map.getPath(u.getPath().get(0), map.getNode(p.getPosition()));
-							if (path == null || path.size() == 0) {
-								path = new ArrayList<SimNode>();
-								path.add(temp);
-							}
-							// if you already want to go to the pakets position don't change your path
-							if (path.get(path.size()-1) == u.getPath().get(u.getPath().size()-1)) {
-								// do nothing
-							}
-							else {
-								u.setPath(path);
-							}
+			paketdestx[p.getPaketnumber() - 1] = projection.getX(p.getDestination());
+			paketdesty[p.getPaketnumber() - 1] = projection.getY(p.getDestination());
+		}
+	}
+	
+	
+	/**
+	 * unparks a waiting user, counting down its waitcounter for all cycles it was parked
+	 * @param u
+	 */
+	private void unparkUser(User u) {
+		int i = u.getUsernumber() - 1;			// users are numbered from 1 in the order of the users list
+		if (waiting.isParked(i)) {
+			long since = waiting.unpark(i);
+			u.decreaseWaitcounter((int) (cycles - since));
+		}
+	}
+	
+	
+	/**
+	 * lets simulation_step run with the given number of threads. The users in range of each other and of the pakets
+	 * are searched in parallel and the resulting pickups and negotiations are made afterwards in the order
+	 * of the users and pakets lists, then the users are moved in parallel. Every user gets its own stream of random numbers
+	 * split off the seed, so a run gives the same results with any number of threads, but other results than a sequential run
+	 * @param threads number of threads, less than 1 to run sequentially with the random numbers of the simulation again
+	 * @param seed
+	 */
+	public void setParallelStep(int threads, long seed) {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		SplitMixRandom random = threads > 0 ? new SplitMixRandom(seed) : null;
+		for (int i = 0; i < users.size(); i++) {
+			users.get(i).setRandom(random == null ? null : random.split());
+		}
+		if (threads > 0) {
+			pool = new ForkJoinPool(threads);
+		}
+	}
+	
+	
+	/**
+	 * runs the action for all indices from 0 to count - 1, in parallel if setParallelStep was used.
+	 * In that case the action must only change objects belonging to its index
+	 * @param count
+	 * @param action
+	 */
+	private void forEach(int count, IndexAction action) {
+		if (pool == null) {
+			for (int i = 0; i < count; i++) {
+				action.run(i);
+			}
+		}
+		else if (count > 0) {
+			// several chunks per thread, so threads that finish early can take over work
+			int chunk = Math.max(1, count / (8 * pool.getParallelism()));
+			pool.invoke(new ForEachTask(action, 0, count, chunk));
+		}
+	}
+	
+	
+	/**
+	 * random numbers for a user: its own ones in a parallel step, otherwise the ones of the simulation
+	 * @param u
+	 * @return
+	 */
+	private Random getRandom(User u) {
+		return u.getRandom() != null ? u.getRandom() : rgen;
+	}
+	
+	
+	/**
+	 * @param u a user with the position in range
+	 * @param position
+	 * @return true if the user is at the position, users replaying a trace only need to be in range
+	 */
+	private boolean isReached(User u, Coordinate position) {
+		return trace != null || (u.getLat() == position.getLat() && u.getLon() == position.getLon());
+	}
+	
+	
+	/**
+	 * checks if there are pakets without carriers to pick up in range of any user
+	 */
+	private void checkForCarrierlessPakets() {
+		// looking for pakets without carriers in range of the users. Nobody moves during the checks,
+		// so the free pakets near every user are searched in the grid first
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final ArrayList<Paket>[] inrange = new ArrayList[users.size()];
+		forEach(users.size(), new IndexAction() {
+			public void run(int i) {
+				User u = users.get(i);
+				ArrayList<Paket> candidates = new ArrayList<Paket>();
+				freepaketgrid.getNeighbours(u.getLat(), u.getLon(), candidates);
+				Projection projection = map.getProjection();
+				double[] xs = new double[candidates.size()];
+				double[] ys = new double[candidates.size()];
+				for (int i2 = 0; i2 < candidates.size(); i2++) {
+					xs[i2] = projection.getX(candidates.get(i2).getPosition());
+					ys[i2] = projection.getY(candidates.get(i2).getPosition());
+				}
+				int[] hits = new int[candidates.size()];
+				int n = rangekernel.select(userx[i], usery[i], xs, ys, candidates.size(), getSquaredRange(), hits);
+				ArrayList<Paket> result = new ArrayList<Paket>(n);
+				for (int i2 = 0; i2 < n; i2++) {
+					result.add(candidates.get(hits[i2]));
+				}
+				inrange[i] = result;
+			}
+		});
+		
+		// the users in range of every paket, in the order of the users list
+		ArrayList<Paket> freepakets = new ArrayList<Paket>();
+		HashMap<Paket, ArrayList<User>> usersinrange = new HashMap<Paket, ArrayList<User>>();
+		for (int i = 0; i < users.size(); i++) {
+			for (int i2 = 0; i2 < inrange[i].size(); i2++) {
+				Paket p = inrange[i].get(i2);
+				ArrayList<User> paketusers = usersinrange.get(p);
+				if (paketusers == null) {
+					paketusers = new ArrayList<User>();
+					usersinrange.put(p, paketusers);
+					freepakets.add(p);
+				}
+				paketusers.add(users.get(i));
+			}
+		}
+		// keep the order of the pakets list, so pickups happen in the same order as with a check of every paket and user
+		Collections.sort(freepakets, PAKETNUMBER_ORDER);
+		
+		for (int i = 0; i < freepakets.size(); i++) {
+			Paket p = freepakets.get(i);
+			ArrayList<User> paketusers = usersinrange.get(p);
+			for (int i2 = 0; i2 < paketusers.size(); i2++) {
+				User u = paketusers.get(i2);
+				if (isReached(u, p.getPosition()) && p.getCarrier() == null) {
+					// if you are at the pakets position, pick it up
+					u.addPaket(p);
+					p.setCarrier(u);
+					freepaketgrid.remove(p);
+
+					// logging
+					ArrayList<String[]> paketadd = new ArrayList<String[]>();
+					String s1 = "User " + u.getUsernumber();
+					String s2 = "Paket " + p.getPaketnumber();
+					paketadd.add(new String[] { String.valueOf(cycles), s1, s2, u.getPosition().toString(), "Free Paket added" });
+					logger.write(paketadd);
+				} else if (trace == null && !isDelivering(u)) {
+					// if you are not at the pakets position, move towards it. A user already going there keeps its path,
+					// a user on its way to deliver a paket doesn't make a detour for it
+					SimNode goal = map.getNode(p.getPosition());
+					if (!u.isHeadingFor(goal)) {
+						SimNode temp = u.getNextNode();
+						List<SimNode> path = map.getSharedPath(u.getNextNode(), goal);
+						if (path == null || path.size() == 0) {
+							path = new ArrayList<SimNode>();
+							path.add(temp);
+						}
+						// if you already want to go to the end of the path don't change your path
+						if (path.get(path.size()-1) != u.getTarget()) {
+							u.setPath(path, User.INTENT_FREE_PAKET);
 						}
 					}
 				}
@@ -309,6 +1007,23 @@ public class MapSimulation {
 	}
 	
 	
+	/**
+	 * @param u
+	 * @return true if the user goes to the destination of a paket it still carries
+	 */
+	private boolean isDelivering(User u) {
+		if (u.getIntent() != User.INTENT_DESTINATION) {
+			return false;
+		}
+		for (int i = 0; i < u.getPakets().size(); i++) {
+			if (u.isHeadingFor(map.getNode(u.getPakets().get(i).getDestination()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
 	/**
 	 * checks if there are pakets that can be delivered in range of the user
 	 */
@@ -318,8 +1033,8 @@ public class MapSimulation {
 			User u = users.get(i);
 			for (int i2 = 0; i2 < u.getPakets().size(); i2++) {
 				Paket p = u.getPakets().get(i2);
-				if (u.getPosition().getDistance(p.getDestination()) < bluetoothrange) {
-					if (u.getPosition().getLat() == p.getDestination().getLat() && u.getPosition().getLon() == p.getDestination().getLon()) {
+				if (isInRange(i, p.getDestination())) {
+					if (isReached(u, p.getDestination())) {
 						// if you are at the pakets destinations position, deliver it
 						u.removePaket(p);
 						p.setCarrier(null);
@@ -334,21 +1049,20 @@ public class MapSimulation {
 						String s2 = "Paket " + p.getPaketnumber();
 						paketdelivered.add(new String[] { String.valueOf(cycles), s1, s2, u.getPosition().toString(), "Paket delivered" });
 						logger.write(paketdelivered);
-					} else {
-						// if you are not at the pakets destinations position, move towards it
-						ArrayList<SimNode> path = new ArrayList<SimNode>();
-						SimNode temp = u.getPath().get(0);
-						path = map.getPath(u.getPath().get(0), map.getNode(p.getDestination()));
-						if (path == null || path.size() == 0) {
-							path = new ArrayList<SimNode>();
-							path.add(temp);
-						}
-						// if you already want to go to the pakets destination don't change your path
-						if (path.get(path.size()-1) == u.getPath().get(u.getPath().size()-1)) {
-							// do nothing
-						}
-						else {
-							u.setPath(path);
+					} else if (trace == null) {
+						// if you are not at the pakets destinations position, move towards it. A user already going there keeps its path
+						SimNode goal = map.getNode(p.getDestination());
+						if (!u.isHeadingFor(goal)) {
+							SimNode temp = u.getNextNode();
+							List<SimNode> path = map.getSharedPath(u.getNextNode(), goal);
+							if (path == null || path.size() == 0) {
+								path = new ArrayList<SimNode>();
+								path.add(temp);
+							}
+							// if you already want to go to the end of the path don't change your path
+							if (path.get(path.size()-1) != u.getTarget()) {
+								u.setPath(path, User.INTENT_DESTINATION);
+							}
 						}
 					}
 				}
@@ -361,20 +1075,45 @@ public class MapSimulation {
 	 * checks through all Users for possible negotiations about pakets
 	 */
     private void checkForNegotiations() {
-        // going through all users and for every user again through every other user to check all possible pairs
-        for (int i = 0; i < users.size(); i++) {
-            User u = users.get(i);
-            for (int i2 = 0; i2 < users.size(); i2++) {
-                User u2 = users.get(i2);
-                if (i != i2) {
-                    // check if both users aren't currently blocked from trading
-                    if (u.getPosition().getDistance(u2.getPosition()) < bluetoothrange)
-                    {
-						this.log_contact(u, u2);
-                        if(u.getTradestopcounter() < 1 && u2.getTradestopcounter() < 1)
-                            negotiate(u, u2);
+        // going through all users and for every user through the users in the neighbouring cells of the usergrid.
+        // Nobody moves during the checks, so the users in range of every user are searched first
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final ArrayList<User>[] inrange = new ArrayList[users.size()];
+        contacts = inrange;
+        forEach(users.size(), new IndexAction() {
+            public void run(int i) {
+                User u = users.get(i);
+                ArrayList<User> candidates = new ArrayList<User>();
+                usergrid.getNeighbours(u.getLat(), u.getLon(), candidates);
+                // keep the order of the users list, so negotiations happen in the same order as with a full pairwise check
+                Collections.sort(candidates, USERNUMBER_ORDER);
+                double[] xs = new double[candidates.size()];
+                double[] ys = new double[candidates.size()];
+                for (int i2 = 0; i2 < candidates.size(); i2++) {
+                    xs[i2] = userx[candidates.get(i2).getUsernumber() - 1];
+                    ys[i2] = usery[candidates.get(i2).getUsernumber() - 1];
+                }
+                int[] hits = new int[candidates.size()];
+                int n = rangekernel.select(userx[i], usery[i], xs, ys, candidates.size(), getSquaredRange(), hits);
+                ArrayList<User> result = new ArrayList<User>(n);
+                for (int i2 = 0; i2 < n; i2++) {
+                    User u2 = candidates.get(hits[i2]);
+                    if (u != u2) {
+                        result.add(u2);
                     }
                 }
+                inrange[i] = result;
+            }
+        });
+
+        for (int i = 0; i < users.size(); i++) {
+            User u = users.get(i);
+            for (int i2 = 0; i2 < inrange[i].size(); i2++) {
+                User u2 = inrange[i].get(i2);
+                this.log_contact(u, u2);
+                // check if both users aren't currently blocked from trading
+                if(u.getTradestopcounter() < 1 && u2.getTradestopcounter() < 1)
+                    negotiate(u, u2);
             }
         }
     }
@@ -382,18 +1121,24 @@ public class MapSimulation {
 
 
 	private void negotiate(User u, User u2) {
+        // users standing at the target of their path have no heading and don't trade
+        if (u.getPakets().size() == 0 || !u.updateHeading(map.getProjection()) || !u2.updateHeading(map.getProjection())) {
+            return;
+        }
         for (int i3 = 0; i3 < u.getPakets().size(); i3++)
         {
             Paket p = u.getPakets().get(i3);
-            double anglecarrier = u.getAngle(p.getDestination());
-            double anglecarriee = u2.getAngle(p.getDestination());
-            if (anglecarriee < anglecarrier) {
+            // the paket goes to the user whose heading makes the smaller angle with the direction of its destination
+            if (isHeadedCloser(u2, u, paketdestx[p.getPaketnumber() - 1], paketdesty[p.getPaketnumber() - 1])) {
+                // waiting users stop counting down while trading
+                unparkUser(u);
+                unparkUser(u2);
                 u.increaseTradestopcounter(tradeDelay);
                 u2.increaseTradestopcounter(tradeDelay);
                 u.removePaket(p);
                 u2.addPaket(p);
                 p.setCarrier(u2);
-                p.setPosition(new Coordinate(u2.getPosition().getLat(), u2.getPosition().getLon()));
+                p.setPosition(u2.getPosition());
                 p.setHandovers(p.getHandovers() + 1);
 
                 // logging
@@ -409,25 +1154,55 @@ public class MapSimulation {
 
     }
 	
+	/**
+	 * compares the angles between the headings of two users and the directions from them to a destination.
+	 * The cosines of the angles are compared, squared and with their signs, so neither acos nor square roots are needed
+	 * @param u2 user with a heading
+	 * @param u user with a heading
+	 * @param destx destination on the plane
+	 * @param desty
+	 * @return true if the angle of u2 is smaller than the one of u
+	 */
+	private boolean isHeadedCloser(User u2, User u, double destx, double desty) {
+		int i = u.getUsernumber() - 1;
+		int i2 = u2.getUsernumber() - 1;
+		double vectorx = destx - userx[i];
+		double vectory = desty - usery[i];
+		double vectorx2 = destx - userx[i2];
+		double vectory2 = desty - usery[i2];
+		// the cosines are dot / |vector|, a user at the destination counts as heading sideways
+		double dot = u.getHeadingX() * vectorx + u.getHeadingY() * vectory;
+		double dot2 = u2.getHeadingX() * vectorx2 + u2.getHeadingY() * vectory2;
+		if (Math.signum(dot2) != Math.signum(dot)) {
+			return dot2 > dot;
+		}
+		if (dot == 0) {
+			return false;
+		}
+		double squared = dot * dot * (vectorx2 * vectorx2 + vectory2 * vectory2);
+		double squared2 = dot2 * dot2 * (vectorx * vectorx + vectory * vectory);
+		return (dot > 0) ? squared2 > squared : squared2 < squared;
+	}
+	
+	
 	/**
 	 * moves the user a certain distance towards the target
 	 * @param u the user that needs to be moved
 	 * @param movedistance the amount of distance it needs to be moved
 	 */
 	private void moveUser(User u, double movedistance) {
-		double distance = u.getPosition().getDistance(u.getPath().get(0).getPosition());
+		double distance = u.getDistance(u.getNextNode().getPosition());
 		// check if our target is nearer than the full movedistance
 		if (distance <= movedistance) {
 			// if we are in move distance for this cycle set our position to our target
-			u.getPosition().setLat(u.getPath().get(0).getPosition().getLat());
-			u.getPosition().setLon(u.getPath().get(0).getPosition().getLon());
+			u.setLocation(u.getNextNode().getPosition().getLat(), u.getNextNode().getPosition().getLon());
 			
 			// if you are already at the nodes position, don't increase the counter for the times the node has been visited
 			if (distance != 0) {
-				u.getPath().get(0).increaseTimesvisited();
+				overlay.increaseTimesvisited(u.getNextNode());
 			}
 			
-			u.getPath().remove(0);
+			u.advancePath();
 			
 			// increase coveredDistance for our user and all their pakets
 			u.setCoveredDistance(u.getCoveredDistance() + distance);
@@ -436,15 +1211,15 @@ public class MapSimulation {
 			}
 			for (int i = 0; i < u.getPakets().size(); i++) {
 				Paket p = u.getPakets().get(i);
-				p.setPosition(new Coordinate(u.getPosition().getLat(), u.getPosition().getLon()));
+				p.setPosition(u.getPosition());
 				p.setCoveredDistance(p.getCoveredDistance() + distance);
 			}
 			
 			// get new destination if we are at the end of our current one, depending on our movement algorithm
-			if (u.getPath().size() == 0) {
+			if (u.getRemainingPathLength() == 0) {
+				Random random = getRandom(u);
 				if (movementalgorithm == RANDOM_WAYPOINT) {
-					ArrayList<SimNode> path = new ArrayList<SimNode>();
-					path = map.getPath(map.getNode(u.getPosition()), map.getRandomNode());
+					List<SimNode> path = map.getSharedPath(map.getNode(u.getPosition()), map.getRandomNode(random));
 					if (path == null || path.size() == 0) {
 						path = new ArrayList<SimNode>();
 						path.add(map.getNode(u.getPosition()));
@@ -452,51 +1227,49 @@ public class MapSimulation {
 					u.setPath(path);
 				}
 				else if (movementalgorithm == CLUSTER_WAYPOINT){
-					double x = map.RandomNumber(0, 2);
+					double x = SimMap.RandomNumber(random, 0, 2);
 					if (x > (u.getKnownClusterValue()/10)) {
-						ArrayList<SimNode> path = new ArrayList<SimNode>();
-						path = map.getPath(map.getNode(u.getPosition()), getRandomClusterNode());
+						List<SimNode> path = map.getSharedPath(map.getNode(u.getPosition()), getRandomClusterNode(random));
 						while (path == null || path.size() == 0) {
-							path = map.getPath(map.getNode(u.getPosition()), getRandomClusterNode());
+							path = map.getSharedPath(map.getNode(u.getPosition()), getRandomClusterNode(random));
 						}
-						if (!u.getKnownclusters().contains(path.get(path.size() - 1))) {
-							u.addKnownclusters(path.get(path.size() - 1));
+						if (!u.isKnowncluster(path.get(path.size() - 1))) {
+							u.addKnownclusters(path.get(path.size() - 1), overlay);
 						}
 						u.setPath(path);
-						double x2 = map.RandomNumber(0, 1);
+						double x2 = SimMap.RandomNumber(random, 0, 1);
 						if (x2 < 0.65) {
-							int x3 = (int) map.RandomNumber(300, 600);
+							int x3 = (int) SimMap.RandomNumber(random, 300, 600);
 							u.increaseWaitcounter(x3);
 						}
 						else if (x2 < 0.9) {
-							int x3 = (int) map.RandomNumber(1800, 7200);
+							int x3 = (int) SimMap.RandomNumber(random, 1800, 7200);
 							u.increaseWaitcounter(x3);
 						}
 						else {
-							int x3 = (int) map.RandomNumber(14400, 288800);
+							int x3 = (int) SimMap.RandomNumber(random, 14400, 288800);
 							u.increaseWaitcounter(x3);
 						}
 						
 					}
 					else {
-						ArrayList<SimNode> path = new ArrayList<SimNode>();
-						path = map.getPath(map.getNode(u.getPosition()), u.getRandomKnowncluster(rgen));
+						List<SimNode> path = map.getSharedPath(map.getNode(u.getPosition()), u.getRandomKnowncluster(random, overlay));
 						while (path == null || path.size() == 0) {
-							path = map.getPath(map.getNode(u.getPosition()), u.getRandomKnowncluster(rgen));
+							path = map.getSharedPath(map.getNode(u.getPosition()), u.getRandomKnowncluster(random, overlay));
 						}
-						u.addKnownclusters(path.get(path.size() - 1));
+						u.addKnownclusters(path.get(path.size() - 1), overlay);
 						u.setPath(path);
-						double x2 = map.RandomNumber(0, 1);
+						double x2 = SimMap.RandomNumber(random, 0, 1);
 						if (x2 < 0.5) {
-							int x3 = (int) map.RandomNumber(300, 600);
+							int x3 = (int) SimMap.RandomNumber(random, 300, 600);
 							u.increaseWaitcounter(x3);
 						}
 						else if (x2 < 0.8) {
-							int x3 = (int) map.RandomNumber(1800, 7200);
+							int x3 = (int) SimMap.RandomNumber(random, 1800, 7200);
 							u.increaseWaitcounter(x3);
 						}
 						else {
-							int x3 = (int) map.RandomNumber(14400, 288800);
+							int x3 = (int) SimMap.RandomNumber(random, 14400, 288800);
 							u.increaseWaitcounter(x3);
 						}
 					}
@@ -508,12 +1281,11 @@ public class MapSimulation {
 			}	
 		} else {
 			// move towards our target
-			double vectorx = u.getPath().get(0).getPosition().getLat() - u.getPosition().getLat();
-			double vectory = u.getPath().get(0).getPosition().getLon() - u.getPosition().getLon();
+			double vectorx = u.getNextNode().getPosition().getLat() - u.getLat();
+			double vectory = u.getNextNode().getPosition().getLon() - u.getLon();
 			double normalisedx = vectorx/distance;
 			double normalisedy = vectory/distance;
-			u.getPosition().setLat(u.getPosition().getLat() + (normalisedx * movedistance));
-			u.getPosition().setLon(u.getPosition().getLon() + (normalisedy * movedistance));
+			u.setLocation(u.getLat() + (normalisedx * movedistance), u.getLon() + (normalisedy * movedistance));
 			
 			// increase coveredDistance for our user and all their pakets
 			u.setCoveredDistance(u.getCoveredDistance() + movedistance);
@@ -522,12 +1294,70 @@ public class MapSimulation {
 			}
 			for (int i = 0; i < u.getPakets().size(); i++) {
 				Paket p = u.getPakets().get(i);
-				p.setPosition(new Coordinate(u.getPosition().getLat(), u.getPosition().getLon()));
+				p.setPosition(u.getPosition());
 				p.setCoveredDistance(p.getCoveredDistance() + movedistance);
 			}
 		}
 	}
 
+	/**
+	 * (re)builds the grids of users and of pakets without carrier, the cells have the size of the bluetoothrange so all users
+	 * and pakets in range of a user are in its own or one of the neighbouring cells, and the contact prediction for the bluetoothrange
+	 */
+	private void buildUserGrid() {
+		double referencelatitude = Math.max(Math.abs(map.getTopBound()), Math.abs(map.getBottomBound()));
+		usergrid = new SpatialGrid<User>(bluetoothrange, referencelatitude);
+		kinetics = new KineticContacts(bluetoothrange, map.getProjection());
+		for (int i = 0; i < users.size(); i++) {
+			User u = users.get(i);
+			usergrid.put(u, u.getLat(), u.getLon());
+		}
+		freepaketgrid = new SpatialGrid<Paket>(bluetoothrange, referencelatitude);
+		for (int i = 0; i < pakets.size(); i++) {
+			Paket p = pakets.get(i);
+			if (p.getCarrier() == null) {
+				freepaketgrid.put(p, p.getPosition());
+			}
+		}
+	}
+
+	/**
+	 * action for one index of forEach
+	 */
+	private interface IndexAction {
+		void run(int i);
+	}
+
+	/**
+	 * runs an action for a range of indices, splitting the range until it is at most chunk indices long
+	 */
+	private static class ForEachTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final IndexAction action;
+		private final int from;
+		private final int to;
+		private final int chunk;
+
+		ForEachTask(IndexAction action, int from, int to, int chunk) {
+			this.action = action;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		protected void compute() {
+			if (to - from <= chunk) {
+				for (int i = from; i < to; i++) {
+					action.run(i);
+				}
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ForEachTask(action, from, middle, chunk), new ForEachTask(action, middle, to, chunk));
+			}
+		}
+	}
+
 	/************************************************************************************************/
 
 	/** Log contact event.
@@ -536,7 +1366,13 @@ public class MapSimulation {
 	 * @param u2
 	 */
 	private void log_contact(User u, User u2) {
-		graph.addMutualUserContact(u, u2, cycles);
+		// the users moved on straight lines during the last cycle, so the moment they got into range can be calculated
+		double start = cycles;
+		if (lastpositions != null && cycles > 0) {
+			start = cycles - 1 + kinetics.getEntry(lastpositions[u.getUsernumber() - 1], u.getPosition(),
+					lastpositions[u2.getUsernumber() - 1], u2.getPosition());
+		}
+		graph.addMutualUserContact(u, u2, cycles, start);
 	}
 
 
@@ -560,7 +1396,7 @@ public class MapSimulation {
 		nodes.add(new String[] {"ID", "Times visited"});
 		for (int i = 0; i < map.getNodes().size(); i++) {
 			SimNode n = map.getNodes().get(i);
-			nodes.add(new String[] {String.valueOf(n.getId()), String.valueOf(n.getTimesvisited())});
+			nodes.add(new String[] {String.valueOf(n.getId()), String.valueOf(overlay.getTimesvisited(n))});
 		}
 		logger.write(nodes);
 		
@@ -624,6 +1460,8 @@ public class MapSimulation {
 		finalStats.add(new String[]{"Average Distance Covered: ",
 				(num_delivered == 0) ? "INF" : String.valueOf(averagedistancecovered / num_delivered)});
 		logger.write(finalStats);
+		// the log is written in the background, after this it is complete in the file
+		logger.flush();
 		
 		// console-version
         System.out.println("Paket stats:");
@@ -637,6 +1475,289 @@ public class MapSimulation {
 	}
 
 	
+	/**
+	 * writes a checkpoint of the simulation every interval cycles from now on, after a simulation_step or simulation_advance.
+	 * The state is copied in between two cycles and written into the file in the background
+	 * @param file the file, null to stop writing checkpoints
+	 * @param interval in cycles
+	 * @throws IOException if the previous checkpoint file couldn't be written
+	 */
+	public void setCheckpointing(File file, long interval) throws IOException {
+		stopCheckpointing();
+		if (file != null) {
+			if (restoredfrom != null && restoredfrom.getFile().getAbsoluteFile().equals(file.getAbsoluteFile())) {
+				// the contact graph is in the journal of the file already
+				checkpoints = restoredfrom;
+			}
+			else {
+				checkpoints = new CheckpointFile(file);
+				graph.resetJournal();
+			}
+			restoredfrom = null;
+			checkpointinterval = interval;
+			nextcheckpoint = cycles + interval;
+		}
+	}
+	
+	
+	/**
+	 * stops writing checkpoints and waits until the last one is in its file
+	 * @throws IOException if a checkpoint couldn't be written
+	 */
+	public void stopCheckpointing() throws IOException {
+		if (checkpoints != null) {
+			CheckpointFile file = checkpoints;
+			checkpoints = null;
+			file.close();
+		}
+	}
+	
+	
+	private void checkpointIfDue() {
+		if (checkpoints != null && cycles >= nextcheckpoint) {
+			try {
+				// the step only copies the state and the new part of the contact graph,
+				// the length of the log is asked from the thread writing it, so the step doesn't wait for the disk
+				final byte[] state = getCheckpointState();
+				final Future<Long> loglength = logger.requestLength();
+				ByteArrayOutputStream open = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(open);
+				graph.writeOpenContacts(out);
+				out.close();
+				final byte[] opencontacts = open.toByteArray();
+				ByteArrayOutputStream journal = new ByteArrayOutputStream();
+				out = new DataOutputStream(journal);
+				graph.writeJournal(out);
+				out.close();
+				checkpoints.write(new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						return joinCheckpoint(state, loglength.get(), opencontacts);
+					}
+				}, journal.toByteArray());
+			} catch (IOException e) {
+				// the simulation goes on, the previous checkpoint is still in the file
+				log.log(Level.WARNING, "checkpoint at cycle " + cycles + " couldn't be written", e);
+			}
+			nextcheckpoint = cycles + checkpointinterval;
+		}
+	}
+	
+	
+	/**
+	 * takes a checkpoint of the simulation. It holds all state that changes while the simulation runs:
+	 * parameters, cycles, random numbers, clusters and visits of the nodes, pakets, users with their paths, counters and waits,
+	 * the contact graph and the length of the log file. The map is not part of it.
+	 * Must be called in between two cycles
+	 * @return the checkpoint
+	 * @throws IOException
+	 */
+	public byte[] getCheckpoint() throws IOException {
+		byte[] state = getCheckpointState();
+		ByteArrayOutputStream events = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(events);
+		graph.writeOpenContacts(out);
+		graph.writeEvents(out);
+		out.close();
+		return joinCheckpoint(state, logger.getLength(), events.toByteArray());
+	}
+
+
+	/**
+	 * a checkpoint is the state, the length of the log file and the contact graph, which is written
+	 * into the journal of a checkpoint file and only follows the rest when it is read
+	 */
+	private static byte[] joinCheckpoint(byte[] state, long loglength, byte[] graph) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(state.length + 8 + graph.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(state);
+		out.writeLong(loglength);
+		out.write(graph);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+
+	private byte[] getCheckpointState() throws IOException {
+		if (trace != null) {
+			throw new IOException("the position in a replayed trace can't be checkpointed");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(CHECKPOINT_MAGIC);
+		out.writeInt(CHECKPOINT_VERSION);
+		out.writeInt(map.getNodeCount());
+		out.writeUTF(mapname);
+		out.writeUTF(simID);
+		out.writeDouble(speed);
+		out.writeInt(steptime);
+		out.writeDouble(actualspeed);
+		out.writeInt(bluetoothrange);
+		out.writeInt(tradeDelay);
+		out.writeInt(movementalgorithm);
+		out.writeLong(cycles);
+		writeRandom(out, rgen);
+		out.writeInt(pool == null ? 0 : pool.getParallelism());
+
+		// nodes
+		out.writeInt(clusternodes.size());
+		for (int i = 0; i < clusternodes.size(); i++) {
+			SimNode n = clusternodes.get(i);
+			out.writeInt(n.getIndex());
+			out.writeDouble(overlay.getClustervalue(n));
+		}
+		for (int i = 0; i < map.getNodeCount(); i++) {
+			out.writeInt(overlay.getTimesvisited(map.getNodeByIndex(i)));
+		}
+
+		// pakets
+		out.writeInt(pakets.size());
+		for (int i = 0; i < pakets.size(); i++) {
+			writePaket(out, pakets.get(i));
+		}
+		out.writeInt(deliveredpakets.size());
+		for (int i = 0; i < deliveredpakets.size(); i++) {
+			writePaket(out, deliveredpakets.get(i));
+		}
+
+		// users
+		out.writeInt(users.size());
+		for (int i = 0; i < users.size(); i++) {
+			User u = users.get(i);
+			out.writeDouble(u.getLat());
+			out.writeDouble(u.getLon());
+			out.writeInt(u.getTradestopcounter());
+			out.writeInt(u.getWaitcounter());
+			out.writeLong(waiting.isParked(i) ? waiting.getParkedSince(i) : -1);
+			// the visited part of the path is never looked at again
+			List<SimNode> path = u.getPath();
+			out.writeInt(path.size());
+			for (int i2 = 0; i2 < path.size(); i2++) {
+				out.writeInt(path.get(i2).getIndex());
+			}
+			out.writeInt(u.getIntent());
+			// the heading depends on where the user was when it was computed
+			out.writeBoolean(u.isHeadingKnown());
+			if (u.isHeadingKnown()) {
+				out.writeDouble(u.getHeadingX());
+				out.writeDouble(u.getHeadingY());
+			}
+			out.writeInt(u.getPakets().size());
+			for (int i2 = 0; i2 < u.getPakets().size(); i2++) {
+				out.writeInt(u.getPakets().get(i2).getPaketnumber());
+			}
+			out.writeDouble(u.getCoveredDistance());
+			out.writeDouble(u.getCoveredDistanceasCarrier());
+			out.writeInt(u.getKnownclusters().size());
+			for (int i2 = 0; i2 < u.getKnownclusters().size(); i2++) {
+				out.writeInt(u.getKnownclusters().get(i2).getIndex());
+			}
+			// the own random numbers of the parallel step are always SplitMixRandom, see setParallelStep
+			SplitMixRandom random = (SplitMixRandom) u.getRandom();
+			out.writeBoolean(random != null);
+			if (random != null) {
+				out.writeLong(random.getState());
+				out.writeLong(random.getGamma());
+			}
+			Coordinate last = lastpositions == null ? u.getPosition() : lastpositions[i];
+			out.writeDouble(last.getLat());
+			out.writeDouble(last.getLon());
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	
+	/**
+	 * restores a simulation from a checkpoint. It goes on exactly like the simulation the checkpoint was taken of
+	 * and continues its log file, lines logged after the checkpoint are dropped from it
+	 * @param map the map the checkpoint was taken on
+	 * @param checkpoint
+	 * @return
+	 * @throws IOException if the checkpoint is broken or doesn't fit the map
+	 */
+	public static MapSimulation restore(SimMap map, byte[] checkpoint) throws IOException {
+		return new MapSimulation(map, new DataInputStream(new ByteArrayInputStream(checkpoint)));
+	}
+	
+	
+	/**
+	 * restores a simulation from the checkpoint in a file written by setCheckpointing.
+	 * Checkpoints of the restored simulation into the same file only add to its journal
+	 * @param map the map the checkpoint was taken on
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MapSimulation restore(SimMap map, File file) throws IOException {
+		CheckpointFile checkpointfile = new CheckpointFile(file);
+		InputStream in = checkpointfile.read();
+		MapSimulation sim;
+		try {
+			sim = new MapSimulation(map, new DataInputStream(in));
+		} finally {
+			in.close();
+		}
+		sim.restoredfrom = checkpointfile;
+		return sim;
+	}
+	
+	
+	private static void writePaket(DataOutputStream out, Paket p) throws IOException {
+		out.writeInt(p.getPaketnumber());
+		out.writeDouble(p.getPosition().getLat());
+		out.writeDouble(p.getPosition().getLon());
+		out.writeDouble(p.getStartingposition().getLat());
+		out.writeDouble(p.getStartingposition().getLon());
+		out.writeDouble(p.getDestination().getLat());
+		out.writeDouble(p.getDestination().getLon());
+		out.writeInt(p.getHandovers());
+		out.writeDouble(p.getCoveredDistance());
+		out.writeBoolean(p.isDelivered());
+		out.writeLong(p.getDeliverytimestamp());
+	}
+	
+	
+	private static Paket readPaket(DataInputStream in) throws IOException {
+		int paketnumber = in.readInt();
+		Coordinate position = new Coordinate(in.readDouble(), in.readDouble());
+		Coordinate start = new Coordinate(in.readDouble(), in.readDouble());
+		Paket p = new Paket(start, new Coordinate(in.readDouble(), in.readDouble()), paketnumber);
+		p.setPosition(position);
+		p.setHandovers(in.readInt());
+		p.setCoveredDistance(in.readDouble());
+		p.setDelivered(in.readBoolean());
+		p.setDeliverytimestamp(in.readLong());
+		return p;
+	}
+	
+	
+	/**
+	 * writes any Random with its exact state, through java serialization
+	 */
+	private static void writeRandom(DataOutputStream out, Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objects = new ObjectOutputStream(bytes);
+		objects.writeObject(random);
+		objects.close();
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+	
+	
+	private static Random readRandom(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (Random) objects.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			objects.close();
+		}
+	}
+
+	
 	// getters and setters
 	public double getSpeed() {
 		return speed;
@@ -660,6 +1781,9 @@ public class MapSimulation {
 	
 	public void setBluetoothrange(int bluetoothrange) {
 		this.bluetoothrange = bluetoothrange;
+		if (usergrid != null) {
+			buildUserGrid();
+		}
 	}
 	
 	public long getCycles() {
@@ -708,6 +1832,11 @@ public class MapSimulation {
 
 	public void setMap(SimMap map) {
 		this.map = map;
+		this.overlay = new MapOverlay(map);
+	}
+
+	public MapOverlay getOverlay() {
+		return overlay;
 	}
 
 
@@ -717,5 +1846,6 @@ public class MapSimulation {
 	
 	public void addClusternode(SimNode n) {
 		clusternodes.add(n);
+		clustersampler = null;
 	}
 }
@@ -0,0 +1,85 @@
+package de.postsim.Simulation;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Range test of one position against a block of candidate positions on the plane of the map projection.
+ * This class tests the candidates one after another, getInstance returns the VectorRangeKernel of the optional
+ * source root src-vector instead if it was compiled and the jdk.incubator.vector module is available,
+ * which tests several candidates at once.
+ * Both compute the squared distances the same way, so they find exactly the same candidates.
+ */
+public class RangeKernel {
+
+	private static final String VECTOR_KERNEL = "de.postsim.Simulation.VectorRangeKernel";
+
+	private static final Logger log = Logger.getLogger(RangeKernel.class.getName());
+
+	private static RangeKernel instance;
+
+	/**
+	 * @return the vectorized kernel if the JVM runs with the jdk.incubator.vector module, else the scalar one
+	 */
+	public static synchronized RangeKernel getInstance() {
+		if (instance == null) {
+			instance = loadVectorKernel();
+			if (instance == null) {
+				instance = new RangeKernel();
+			}
+		}
+		return instance;
+	}
+
+
+	/**
+	 * loads the vectorized kernel by name, so this class still works if the incubator module is missing
+	 * @return the vectorized kernel or null
+	 */
+	private static RangeKernel loadVectorKernel() {
+		try {
+			RangeKernel kernel = (RangeKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+			// the vector classes are only linked when they are used first
+			kernel.select(0, 0, new double[] {0}, new double[] {0}, 1, 1, new int[1]);
+			return kernel;
+		} catch (Exception e) {
+			log.log(Level.FINE, "vectorized range kernel not available", e);
+		} catch (LinkageError e) {
+			log.log(Level.FINE, "vectorized range kernel not available", e);
+		}
+		return null;
+	}
+
+
+	/**
+	 * finds the candidates that are less than the range away from a position
+	 * @param x position on the plane in meters
+	 * @param y
+	 * @param xs positions of the candidates
+	 * @param ys
+	 * @param count number of candidates at the start of xs and ys
+	 * @param squaredrange the range squared
+	 * @param result gets the indices of the candidates in range in ascending order, must hold count entries
+	 * @return the number of candidates in range
+	 */
+	public int select(double x, double y, double[] xs, double[] ys, int count, double squaredrange, int[] result) {
+		return selectScalar(x, y, xs, ys, 0, count, squaredrange, result, 0);
+	}
+
+
+	/**
+	 * tests the candidates from index from to index to one after another
+	 * @return the number of candidates in result after adding the ones in range
+	 */
+	static int selectScalar(double x, double y, double[] xs, double[] ys, int from, int to, double squaredrange,
+			int[] result, int n) {
+		for (int i = from; i < to; i++) {
+			double dx = xs[i] - x;
+			double dy = ys[i] - y;
+			if (dx * dx + dy * dy < squaredrange) {
+				result[n++] = i;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,144 @@
+package de.postsim.Simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import de.postsim.Objects.Coordinate;
+
+/**
+ * Uniform grid over lat/lon positions used to find objects near each other without comparing every pair.
+ * The cells are squares with an edge length of cellsize meters, so everything within cellsize of a position
+ * is found in the cell of that position or one of its eight neighbouring cells.
+ *
+ * @param <T> type of the objects stored in the grid
+ */
+public class SpatialGrid<T> {
+
+	private static final double RADIUS = 6378388;						// earth radius, same as in Coordinate.getDistance
+	private static final double METERS_PER_DEGREE = RADIUS * Math.PI / 180;
+
+	private final double latcellsize;									// cell height in degrees latitude
+	private final double loncellsize;									// cell width in degrees longitude
+	private HashMap<Long, ArrayList<T>> cells = new HashMap<Long, ArrayList<T>>();	// objects stored per cell
+	private HashMap<T, Long> cellkeys = new HashMap<T, Long>();			// cell every object is currently stored in
+
+	/**
+	 * constructs an empty grid.
+	 * The referencelatitude should be the latitude farthest away from the equator on the map,
+	 * so that a cell is never narrower than cellsize meters anywhere on the map
+	 * @param cellsize edge length of a cell in meters
+	 * @param referencelatitude latitude used to convert meters into degrees longitude
+	 */
+	public SpatialGrid(double cellsize, double referencelatitude) {
+		this.latcellsize = cellsize / METERS_PER_DEGREE;
+		this.loncellsize = cellsize / (METERS_PER_DEGREE * Math.cos(Math.toRadians(referencelatitude)));
+	}
+
+
+	/**
+	 * inserts an object into the grid or moves it to the cell of its new position
+	 * @param item
+	 * @param position
+	 */
+	public void put(T item, Coordinate position) {
+		put(item, position.getLat(), position.getLon());
+	}
+
+
+	/**
+	 * inserts an object into the grid or moves it to the cell of its new position
+	 * @param item
+	 * @param lat
+	 * @param lon
+	 */
+	public void put(T item, double lat, double lon) {
+		Long key = getKey(getRow(lat), getColumn(lon));
+		Long oldkey = cellkeys.get(item);
+		if (key.equals(oldkey)) {
+			return;
+		}
+		if (oldkey != null) {
+			removeFromCell(item, oldkey);
+		}
+		ArrayList<T> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<T>();
+			cells.put(key, cell);
+		}
+		cell.add(item);
+		cellkeys.put(item, key);
+	}
+
+
+	/**
+	 * removes an object from the grid
+	 * @param item
+	 */
+	public void remove(T item) {
+		Long oldkey = cellkeys.remove(item);
+		if (oldkey != null) {
+			removeFromCell(item, oldkey);
+		}
+	}
+
+
+	/**
+	 * adds all objects in the cell of the position and its eight neighbouring cells to the result list.
+	 * This contains every object within cellsize meters, but also objects that are further away
+	 * @param position
+	 * @param result
+	 */
+	public void getNeighbours(Coordinate position, ArrayList<T> result) {
+		getNeighbours(position.getLat(), position.getLon(), result);
+	}
+
+
+	/**
+	 * adds all objects in the cell of the position and its eight neighbouring cells to the result list
+	 * @param lat
+	 * @param lon
+	 * @param result
+	 */
+	public void getNeighbours(double lat, double lon, ArrayList<T> result) {
+		long row = getRow(lat);
+		long column = getColumn(lon);
+		for (long r = row - 1; r <= row + 1; r++) {
+			for (long c = column - 1; c <= column + 1; c++) {
+				ArrayList<T> cell = cells.get(getKey(r, c));
+				if (cell != null) {
+					result.addAll(cell);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * removes all objects from the grid
+	 */
+	public void clear() {
+		cells.clear();
+		cellkeys.clear();
+	}
+
+
+	private void removeFromCell(T item, Long key) {
+		ArrayList<T> cell = cells.get(key);
+		cell.remove(item);
+		if (cell.isEmpty()) {
+			cells.remove(key);
+		}
+	}
+
+	private long getRow(double lat) {
+		return (long) Math.floor(lat / latcellsize);
+	}
+
+	private long getColumn(double lon) {
+		return (long) Math.floor(lon / loncellsize);
+	}
+
+	private static Long getKey(long row, long column) {
+		return (row << 32) ^ (column & 0xffffffffL);
+	}
+}
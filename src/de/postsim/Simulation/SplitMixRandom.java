@@ -0,0 +1,93 @@
+package de.postsim.Simulation;
+
+import java.util.Random;
+
+/**
+ * Random numbers of the SplitMix64 generator, which can be split into independent streams.
+ * Splitting the streams of all users off one seeded generator in a fixed order gives every user
+ * the same random numbers no matter which thread moves the user.
+ * Unlike java.util.Random this class is not thread-safe, every stream must only be used by one thread at a time.
+ */
+public class SplitMixRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;					// advanced by gamma for every random number
+	private long gamma;					// odd step of this stream
+
+	/**
+	 * constructs a generator with the given seed
+	 * @param seed
+	 */
+	public SplitMixRandom(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	/**
+	 * continues the stream with the given state and gamma, see getState and getGamma
+	 * @param state
+	 * @param gamma
+	 */
+	SplitMixRandom(long state, long gamma) {
+		super(0L);
+		this.state = state;
+		this.gamma = gamma;
+	}
+
+
+	/**
+	 * constructs a new generator whose random numbers are independent of this one and advances this generator
+	 * @return
+	 */
+	public SplitMixRandom split() {
+		return new SplitMixRandom(nextLong(), mixGamma(nextLong()));
+	}
+
+
+	public void setSeed(long seed) {
+		// also called by the constructor of java.util.Random, before gamma is set
+		this.state = seed;
+		this.gamma = GOLDEN_GAMMA;
+	}
+
+	public long nextLong() {
+		state += gamma;
+		return mix64(state);
+	}
+
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		// gammas with too few bit changes give streams of poor quality
+		if (Long.bitCount(z ^ (z >>> 1)) < 24) {
+			z ^= 0xaaaaaaaaaaaaaaaaL;
+		}
+		return z;
+	}
+
+	// getters, the state and gamma describe the stream completely
+	public long getState() {
+		return state;
+	}
+
+	public long getGamma() {
+		return gamma;
+	}
+}
@@ -0,0 +1,346 @@
+package de.postsim.Simulation;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+import de.postsim.IO.SimMapFile;
+import de.postsim.Objects.Paket;
+import de.postsim.Objects.SimMap;
+
+/**
+ * Runs many simulations without GUI in one JVM: every combination of seeds, population sizes,
+ * bluetooth ranges and trade delays is run on one map that is loaded only once.
+ * The runs are spread over a fixed number of worker threads, each run writes its own log files
+ * and one result row into a shared results file. Runs that already have a row in the results file are skipped,
+ * so a sweep that was interrupted continues where it stopped when it is started again.
+ * Runs are told apart by all their parameters including the cycles, so a sweep with longer runs repeats them all.
+ *
+ * Usage: SweepRunner mapfile resultsfile [name=values ...] with comma separated values or ranges like 1-10 for
+ * seeds, users, pakets, range, tradedelay and algorithm, and single values for cycles, threads and stepthreads.
+ * With stepthreads above 0 every run steps in parallel with that many threads, see MapSimulation.setParallelStep.
+ */
+public class SweepRunner {
+
+	private static final String[] HEADER = new String[] {"Run", "Seed", "Users", "Pakets", "Range", "Trade Delay", "Algorithm",
+			"Cycles", "Delivered Pakets", "Undelivered Pakets", "Average Handovers", "Average Delivery Time",
+			"Average Distance Covered", "Runtime ms"};
+
+	private static final Logger log = Logger.getLogger(SweepRunner.class.getName());
+
+	private final SimMap map;
+	private final String mapname;
+	private final File resultsfile;
+	private final CSVWriter results;								// shared by all workers, written while holding the runner's lock
+	private final Set<String> done;								// keys of the runs that already have a result row
+
+	/**
+	 * opens the results file of a sweep, rows that are already in it are kept
+	 * @param map the map all runs share
+	 * @param mapname prefix for the log files of the runs
+	 * @param resultsfile
+	 * @throws IOException
+	 */
+	public SweepRunner(SimMap map, String mapname, File resultsfile) throws IOException {
+		this.map = map;
+		this.mapname = mapname;
+		this.resultsfile = resultsfile;
+		if (resultsfile.exists()) {
+			// a row cut off by a crash is removed, its run is repeated
+			removeCutOffRow(resultsfile);
+		}
+		boolean newfile = !resultsfile.exists() || resultsfile.length() == 0;
+		this.done = readDoneRuns(resultsfile);
+		this.results = new CSVWriter(new FileWriter(resultsfile, true));
+		if (newfile) {
+			writeRow(HEADER);
+		}
+	}
+
+
+	/**
+	 * runs all combinations of the parameters that are not done yet and waits until they are finished
+	 * @param seeds
+	 * @param users
+	 * @param pakets
+	 * @param ranges bluetooth ranges in m
+	 * @param tradedelays in cycles
+	 * @param algorithms movement algorithms, see MapSimulation.RANDOM_WAYPOINT and CLUSTER_WAYPOINT
+	 * @param maxcycles cycles after which a run stops if not all pakets are delivered
+	 * @param threads number of runs at the same time
+	 * @param stepthreads threads every run steps with, 0 to step sequentially
+	 * @return the number of runs that were started
+	 * @throws InterruptedException
+	 */
+	public int run(int[] seeds, int[] users, int[] pakets, int[] ranges, int[] tradedelays, int[] algorithms,
+			final long maxcycles, int threads, final int stepthreads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		int started = 0;
+		try {
+			for (final int seed : seeds)
+				for (final int u : users)
+					for (final int p : pakets)
+						for (final int range : ranges)
+							for (final int delay : tradedelays)
+								for (final int algorithm : algorithms) {
+									final String key = getRunKey(seed, u, p, range, delay, algorithm, maxcycles, stepthreads > 0);
+									if (done.contains(key)) {
+										continue;
+									}
+									started++;
+									pool.execute(new Runnable() {
+										public void run() {
+											try {
+												runOne(key, seed, u, p, range, delay, algorithm, maxcycles, stepthreads);
+											} catch (RuntimeException e) {
+												// one failing run must not stop the others, it is repeated when the sweep is resumed
+												log.log(Level.SEVERE, "run " + key + " failed", e);
+											}
+										}
+									});
+								}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+		return started;
+	}
+
+
+	/**
+	 * runs a single simulation and writes its result row
+	 */
+	private void runOne(String key, int seed, int users, int pakets, int range, int tradedelay, int algorithm, long maxcycles,
+			int stepthreads) {
+		long start = System.currentTimeMillis();
+		// the run key in the name keeps the log files of runs started in the same second apart
+		MapSimulation sim = new MapSimulation(map, new Random(seed), users, pakets, range, algorithm, tradedelay,
+				mapname + "_" + key);
+		try {
+			if (stepthreads > 0) {
+				sim.setParallelStep(stepthreads, seed);
+			}
+			while (sim.getUnDeliveredpakets().size() > 0 && sim.getCycles() < maxcycles) {
+				sim.simulation_advance(maxcycles - sim.getCycles());
+			}
+			sim.writeFinalStats();
+			try {
+				sim.writeContactGraph();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} finally {
+			// also stops the logger thread of a run that failed
+			sim.close();
+		}
+
+		int handovers = 0;
+		long deliverytime = 0;
+		double distance = 0;
+		List<Paket> delivered = sim.getDeliveredpakets();
+		for (int i = 0; i < delivered.size(); i++) {
+			Paket p = delivered.get(i);
+			handovers += p.getHandovers();
+			deliverytime += p.getDeliverytimestamp();
+			distance += p.getCoveredDistance();
+		}
+		int n = delivered.size();
+		writeRow(new String[] {key, String.valueOf(seed), String.valueOf(users), String.valueOf(pakets),
+				String.valueOf(range), String.valueOf(tradedelay), String.valueOf(algorithm), String.valueOf(sim.getCycles()),
+				String.valueOf(n), String.valueOf(sim.getUnDeliveredpakets().size()),
+				(n == 0) ? "INF" : String.valueOf((double) handovers / n),
+				(n == 0) ? "INF" : String.valueOf((double) deliverytime / n),
+				(n == 0) ? "INF" : String.valueOf(distance / n),
+				String.valueOf(System.currentTimeMillis() - start)});
+	}
+
+
+	/**
+	 * writes a row and flushes it, so it is in the file if the sweep stops
+	 * @param row
+	 */
+	private synchronized void writeRow(String[] row) {
+		results.writeNext(row);
+		try {
+			results.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	public synchronized void close() throws IOException {
+		results.close();
+	}
+
+
+	/**
+	 * @return a name that identifies a run by its parameters. Parallel runs give the same results with any number of threads,
+	 * but other ones than sequential runs
+	 */
+	static String getRunKey(int seed, int users, int pakets, int range, int tradedelay, int algorithm, long maxcycles,
+			boolean parallel) {
+		return "S" + seed + "_U" + users + "_P" + pakets + "_R" + range + "_T" + tradedelay + "_A" + algorithm
+				+ "_C" + maxcycles + (parallel ? "_parallel" : "");
+	}
+
+
+	/**
+	 * reads the keys of the runs in a results file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static Set<String> readDoneRuns(File file) throws IOException {
+		Set<String> keys = new HashSet<String>();
+		if (!file.exists()) {
+			return keys;
+		}
+		CSVReader reader = new CSVReader(new FileReader(file));
+		try {
+			String[] fields = reader.readNext();			// header
+			while ((fields = reader.readNext()) != null) {
+				if (fields.length == HEADER.length) {
+					keys.add(fields[0]);
+				}
+			}
+		} catch (CsvValidationException e) {
+			throw new IOException(file + " is not a results file", e);
+		} finally {
+			reader.close();
+		}
+		return keys;
+	}
+
+
+	/**
+	 * cuts a file back to its last line break, if it doesn't end with one
+	 * @param file
+	 * @throws IOException
+	 */
+	private static void removeCutOffRow(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long end = raf.length();
+			while (end > 0) {
+				raf.seek(end - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				end--;
+			}
+			raf.setLength(end);
+		} finally {
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * parses a list like "1,5,10-12" into its values
+	 * @param values
+	 * @return
+	 */
+	static int[] parseValues(String values) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		for (String part : values.split(",")) {
+			int dash = part.indexOf('-', 1);
+			if (dash < 0) {
+				result.add(Integer.parseInt(part.trim()));
+			}
+			else {
+				int from = Integer.parseInt(part.substring(0, dash).trim());
+				int to = Integer.parseInt(part.substring(dash + 1).trim());
+				for (int i = from; i <= to; i++) {
+					result.add(i);
+				}
+			}
+		}
+		int[] array = new int[result.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = result.get(i);
+		}
+		return array;
+	}
+
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("usage: SweepRunner mapfile resultsfile [seeds=1-10] [users=100] [pakets=250] [range=10] "
+					+ "[tradedelay=10] [algorithm=2] [cycles=604] [threads=" + Runtime.getRuntime().availableProcessors() + "] [stepthreads=0]");
+			System.exit(1);
+		}
+		// same parameters as InitialGUI unless given
+		String seeds = "4", users = "100", pakets = "250", ranges = "10", tradedelays = "10";
+		String algorithms = String.valueOf(MapSimulation.CLUSTER_WAYPOINT);
+		long cycles = 604;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int stepthreads = 0;
+		for (int i = 2; i < args.length; i++) {
+			String[] arg = args[i].split("=", 2);
+			if (arg.length != 2) {
+				System.err.println("parameter without value: " + args[i]);
+				System.exit(1);
+			}
+			switch (arg[0]) {
+				case "seeds": seeds = arg[1]; break;
+				case "users": users = arg[1]; break;
+				case "pakets": pakets = arg[1]; break;
+				case "range": ranges = arg[1]; break;
+				case "tradedelay": tradedelays = arg[1]; break;
+				case "algorithm": algorithms = arg[1]; break;
+				case "cycles": cycles = Long.parseLong(arg[1]); break;
+				case "threads": threads = Integer.parseInt(arg[1]); break;
+				case "stepthreads": stepthreads = Integer.parseInt(arg[1]); break;
+				default:
+					System.err.println("unknown parameter: " + arg[0]);
+					System.exit(1);
+			}
+		}
+
+		for (int algorithm : parseValues(algorithms)) {
+			// replaying a trace needs a trace file, which sweeps don't have
+			if (algorithm != MapSimulation.RANDOM_WAYPOINT && algorithm != MapSimulation.CLUSTER_WAYPOINT) {
+				System.err.println("unknown algorithm: " + algorithm);
+				System.exit(1);
+			}
+		}
+
+		File mapfile = new File(args[0]);
+		try {
+			SimMap map = SimMapFile.load(mapfile);
+			// all runs search their paths on the same map, so the preprocessing pays off
+			map.prepareContractionHierarchy();
+			SweepRunner runner = new SweepRunner(map, mapfile.getName().split("\\.")[0], new File(args[1]));
+			try {
+				int started = runner.run(parseValues(seeds), parseValues(users), parseValues(pakets), parseValues(ranges),
+						parseValues(tradedelays), parseValues(algorithms), cycles, threads, stepthreads);
+				System.out.println(started + " runs done, " + runner.done.size() + " were already in " + runner.resultsfile);
+			} finally {
+				runner.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
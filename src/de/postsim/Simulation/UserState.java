@@ -0,0 +1,104 @@
+package de.postsim.Simulation;
+
+import java.util.Arrays;
+
+/**
+ * State of the users of a simulation that changes every cycle, stored in one array per value
+ * so loops over all users run through memory in order instead of visiting every User object.
+ * A user has the same slot in all arrays, in a simulation the slot is the usernumber - 1.
+ * User objects are views on their slot, which they take when they are constructed.
+ */
+public class UserState {
+
+	private double[] lat;							// latitude of the position
+	private double[] lon;							// longitude of the position
+	private int[] tradestopcounter;					// counter to control stopping for a trade
+	private int[] waitcounter;						// counter to control waiting at a smooth location
+	private int[] pathcursor;						// index of the next node in the path of the user
+	private int size;								// number of used slots
+
+	/**
+	 * constructs an empty state
+	 * @param capacity number of users it can hold without growing
+	 */
+	public UserState(int capacity) {
+		capacity = Math.max(1, capacity);
+		lat = new double[capacity];
+		lon = new double[capacity];
+		tradestopcounter = new int[capacity];
+		waitcounter = new int[capacity];
+		pathcursor = new int[capacity];
+	}
+
+
+	/**
+	 * adds a slot for a user
+	 * @return the slot
+	 */
+	public int add() {
+		if (size == lat.length) {
+			int capacity = 2 * lat.length;
+			lat = Arrays.copyOf(lat, capacity);
+			lon = Arrays.copyOf(lon, capacity);
+			tradestopcounter = Arrays.copyOf(tradestopcounter, capacity);
+			waitcounter = Arrays.copyOf(waitcounter, capacity);
+			pathcursor = Arrays.copyOf(pathcursor, capacity);
+		}
+		return size++;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+	// getters and setters by slot
+	public double getLat(int slot) {
+		return lat[slot];
+	}
+
+	public double getLon(int slot) {
+		return lon[slot];
+	}
+
+	public void setLocation(int slot, double lat, double lon) {
+		this.lat[slot] = lat;
+		this.lon[slot] = lon;
+	}
+
+	public int getTradestopcounter(int slot) {
+		return tradestopcounter[slot];
+	}
+
+	public void setTradestopcounter(int slot, int tradestopcounter) {
+		this.tradestopcounter[slot] = tradestopcounter;
+	}
+
+	public int getWaitcounter(int slot) {
+		return waitcounter[slot];
+	}
+
+	public void setWaitcounter(int slot, int waitcounter) {
+		this.waitcounter[slot] = waitcounter;
+	}
+
+	public int getPathcursor(int slot) {
+		return pathcursor[slot];
+	}
+
+	public void setPathcursor(int slot, int pathcursor) {
+		this.pathcursor[slot] = pathcursor;
+	}
+
+	/**
+	 * the arrays of all users for loops over them, they are replaced when the state grows
+	 * @return
+	 */
+	double[] getLatArray() {
+		return lat;
+	}
+
+	double[] getLonArray() {
+		return lon;
+	}
+}
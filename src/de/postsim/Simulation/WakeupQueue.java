@@ -0,0 +1,100 @@
+package de.postsim.Simulation;
+
+import java.util.BitSet;
+import java.util.PriorityQueue;
+
+/**
+ * Users that wait at a place without trading are parked here until the cycle their wait ends,
+ * so simulation_step doesn't have to visit them every cycle just to count down their waitcounter.
+ * Users are identified by their position in the users list of the simulation.
+ * Users can be unparked before their wakeup cycle, their entry in the queue is then skipped when it comes up.
+ */
+class WakeupQueue {
+
+	private final PriorityQueue<Wakeup> queue = new PriorityQueue<Wakeup>();	// wakeups ordered by cycle
+	private final BitSet parked = new BitSet();								// parked users
+	private long[] since = new long[16];										// first cycle a parked user didn't count down
+
+
+	/**
+	 * parks a user
+	 * @param user
+	 * @param fromcycle first cycle the user is not visited
+	 * @param wakecycle cycle in which the user has to be visited again
+	 */
+	void park(int user, long fromcycle, long wakecycle) {
+		if (user >= since.length) {
+			long[] grown = new long[Math.max(2 * since.length, user + 1)];
+			System.arraycopy(since, 0, grown, 0, since.length);
+			since = grown;
+		}
+		parked.set(user);
+		since[user] = fromcycle;
+		queue.add(new Wakeup(wakecycle, user, fromcycle));
+	}
+
+
+	/**
+	 * unparks a user
+	 * @param user
+	 * @return the first cycle the user wasn't visited
+	 */
+	long unpark(int user) {
+		parked.clear(user);
+		return since[user];
+	}
+
+
+	/**
+	 * @param cycle
+	 * @return a user that has to be woken up in the cycle or -1 if there is none, the user is still parked
+	 */
+	int nextWakeup(long cycle) {
+		while (!queue.isEmpty() && queue.peek().cycle <= cycle) {
+			Wakeup w = queue.poll();
+			// skip users that have been unparked (and maybe parked again) since this wakeup was queued
+			if (parked.get(w.user) && since[w.user] == w.since) {
+				return w.user;
+			}
+		}
+		return -1;
+	}
+
+
+	boolean isParked(int user) {
+		return parked.get(user);
+	}
+
+	/**
+	 * @param user a parked user
+	 * @return the first cycle the user wasn't visited
+	 */
+	long getParkedSince(int user) {
+		return since[user];
+	}
+
+	/**
+	 * @param user
+	 * @return the next user from user on that is not parked
+	 */
+	int nextActive(int user) {
+		return parked.nextClearBit(user);
+	}
+
+
+	private static class Wakeup implements Comparable<Wakeup> {
+		final long cycle;
+		final int user;
+		final long since;
+
+		Wakeup(long cycle, int user, long since) {
+			this.cycle = cycle;
+			this.user = user;
+			this.since = since;
+		}
+
+		public int compareTo(Wakeup other) {
+			return Long.compare(cycle, other.cycle);
+		}
+	}
+}
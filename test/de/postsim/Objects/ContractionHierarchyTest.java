@@ -0,0 +1,99 @@
+package de.postsim.Objects;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Paths from the contraction hierarchy have to be as short as the paths of the A*-algorithm.
+ * They may take another way if two ways are equally long, so the lengths are compared, not the nodes
+ */
+public class ContractionHierarchyTest {
+
+	private static final int PAIRS = 2000;
+
+	@Test
+	public void sameLengthAsAStar() {
+		SimMap map = TestMaps.grid(30, new Random(3));
+		// every path has to be searched, not taken from the cache
+		map.getRouteCache().setCapacity(0);
+		Random random = new Random(5);
+		SimNode[] starts = new SimNode[PAIRS];
+		SimNode[] ends = new SimNode[PAIRS];
+		List<List<SimNode>> astarpaths = new ArrayList<List<SimNode>>();
+		for (int i = 0; i < PAIRS; i++) {
+			starts[i] = map.getRandomNode(random);
+			ends[i] = map.getRandomNode(random);
+			astarpaths.add(map.getPath(starts[i], ends[i]));
+		}
+
+		map.prepareContractionHierarchy();
+		assertTrue(map.hasContractionHierarchy());
+		for (int i = 0; i < PAIRS; i++) {
+			List<SimNode> path = map.getPath(starts[i], ends[i]);
+			List<SimNode> astarpath = astarpaths.get(i);
+			assertNotNull(astarpath);
+			assertNotNull(path);
+			if (starts[i] == ends[i]) {
+				assertTrue(path.isEmpty());
+				continue;
+			}
+			assertSame(ends[i], path.get(path.size() - 1));
+			assertEquals("path " + i, getLength(map, starts[i], astarpath), getLength(map, starts[i], path), 1e-6);
+		}
+	}
+
+
+	@Test
+	public void noPathBetweenComponents() {
+		SimNode[] nodes = new SimNode[6];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new SimNode(i + 1, new Coordinate(50.0 + (i % 3) * 0.0003, 8.0 + (i / 3) * 0.001));
+		}
+		ArrayList<SimWay> ways = new ArrayList<SimWay>();
+		for (int w = 0; w < 2; w++) {
+			ArrayList<SimNode> way = new ArrayList<SimNode>();
+			for (int i = 0; i < 3; i++) {
+				way.add(nodes[3 * w + i]);
+			}
+			ways.add(new SimWay(10 + w, way));
+		}
+		SimMap map = new SimMap(ways, 50.001, 49.999, 8.002, 7.999);
+		map.getRouteCache().setCapacity(0);
+		assertNull(map.getPath(nodes[0], nodes[5]));
+		assertNotNull(map.getPath(nodes[0], nodes[2]));
+
+		map.prepareContractionHierarchy();
+		assertNull(map.getPath(nodes[0], nodes[5]));
+		assertNull(map.getPath(nodes[5], nodes[0]));
+		List<SimNode> path = map.getPath(nodes[0], nodes[2]);
+		assertNotNull(path);
+		assertEquals(2, path.size());
+		assertSame(nodes[2], path.get(1));
+	}
+
+
+	/**
+	 * @return the length of the path in m, after checking that every node is a neighbour of the one before
+	 */
+	private static double getLength(SimMap map, SimNode start, List<SimNode> path) {
+		double length = 0;
+		SimNode previous = start;
+		for (SimNode node : path) {
+			double edge = map.getEdgeLength(previous, node);
+			assertFalse(Double.isNaN(edge));
+			length += edge;
+			previous = node;
+		}
+		return length;
+	}
+}
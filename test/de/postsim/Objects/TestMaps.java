@@ -0,0 +1,49 @@
+package de.postsim.Objects;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Small synthetic maps for the tests, so they don't need an OSM file
+ */
+public class TestMaps {
+
+	/**
+	 * a grid of n times n nodes about 33 m apart, with a way along every row and every column
+	 * and n short diagonal ways. The nodes are moved a bit, so the edges don't all have the same length
+	 * @param n
+	 * @param random places the nodes and the diagonals
+	 * @return
+	 */
+	public static SimMap grid(int n, Random random) {
+		SimNode[][] nodes = new SimNode[n][n];
+		long id = 1;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				nodes[i][j] = new SimNode(id++, new Coordinate(50.0 + i * 0.0003 + random.nextDouble() * 0.0001,
+						8.0 + j * 0.0004 + random.nextDouble() * 0.0001));
+			}
+		}
+		ArrayList<SimWay> ways = new ArrayList<SimWay>();
+		for (int i = 0; i < n; i++) {
+			ArrayList<SimNode> row = new ArrayList<SimNode>();
+			ArrayList<SimNode> column = new ArrayList<SimNode>();
+			for (int j = 0; j < n; j++) {
+				row.add(nodes[i][j]);
+				column.add(nodes[j][i]);
+			}
+			ways.add(new SimWay(id++, row));
+			ways.add(new SimWay(id++, column));
+		}
+		for (int k = 0; k < n; k++) {
+			ArrayList<SimNode> diagonal = new ArrayList<SimNode>();
+			int i = random.nextInt(n - 2);
+			int j = random.nextInt(n - 2);
+			for (int t = 0; t < 3; t++) {
+				diagonal.add(nodes[i + t][j + t]);
+			}
+			ways.add(new SimWay(id++, diagonal));
+		}
+		return new SimMap(ways, 50.0 + n * 0.0003, 50.0 - 0.0001, 8.0 + n * 0.0004, 8.0 - 0.0001);
+	}
+}
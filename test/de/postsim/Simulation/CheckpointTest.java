@@ -0,0 +1,140 @@
+package de.postsim.Simulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.postsim.IO.CheckpointFile;
+import de.postsim.Objects.SimMap;
+import de.postsim.Objects.TestMaps;
+
+/**
+ * A restored simulation has to be the same as the one the checkpoint was taken of and go on exactly like it.
+ * Both are compared by their checkpoints, which hold all state, the contact graph and the length of the log
+ */
+public class CheckpointTest {
+
+	private static final int CHECKPOINT_CYCLE = 300;
+	private static final int END_CYCLE = 500;
+
+	private SimMap map;
+	private File directory;			// log files and checkpoint files of a test
+
+	@Before
+	public void setUp() throws IOException {
+		map = TestMaps.grid(20, new Random(3));
+		directory = Files.createTempDirectory("checkpointtest").toFile();
+	}
+
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+
+	@Test
+	public void restoreRandomWaypoint() throws IOException {
+		restore(MapSimulation.RANDOM_WAYPOINT);
+	}
+
+
+	@Test
+	public void restoreClusterWaypoint() throws IOException {
+		restore(MapSimulation.CLUSTER_WAYPOINT);
+	}
+
+
+	@Test
+	public void restoreFromFile() throws IOException {
+		File file = new File(directory, "sim.checkpoint");
+		MapSimulation sim = newSimulation(MapSimulation.CLUSTER_WAYPOINT);
+		sim.setCheckpointing(file, CHECKPOINT_CYCLE / 3);
+		run(sim, CHECKPOINT_CYCLE);
+		byte[] checkpoint = sim.getCheckpoint();
+		run(sim, CHECKPOINT_CYCLE + 50);
+		sim.stopCheckpointing();
+		run(sim, CHECKPOINT_CYCLE + 100);
+		byte[] later = sim.getCheckpoint();
+		run(sim, END_CYCLE);
+		byte[] expected = sim.getCheckpoint();
+		sim.close();
+
+		// a restored simulation writing checkpoints into the same file continues its journal
+		MapSimulation restored = MapSimulation.restore(map, file);
+		assertArrayEquals(checkpoint, restored.getCheckpoint());
+		restored.setCheckpointing(file, CHECKPOINT_CYCLE / 3);
+		run(restored, CHECKPOINT_CYCLE + 150);
+		restored.close();
+
+		MapSimulation again = MapSimulation.restore(map, file);
+		assertArrayEquals(later, again.getCheckpoint());
+		run(again, END_CYCLE);
+		assertArrayEquals(expected, again.getCheckpoint());
+		again.close();
+		CheckpointFile.delete(file);
+	}
+
+
+	@Test
+	public void restoreParallelStep() throws IOException {
+		MapSimulation sim = newSimulation(MapSimulation.CLUSTER_WAYPOINT);
+		sim.setParallelStep(3, 42L);
+		run(sim, CHECKPOINT_CYCLE);
+		byte[] checkpoint = sim.getCheckpoint();
+		run(sim, END_CYCLE);
+		byte[] expected = sim.getCheckpoint();
+		sim.close();
+
+		MapSimulation restored = MapSimulation.restore(map, checkpoint);
+		assertArrayEquals(checkpoint, restored.getCheckpoint());
+		run(restored, END_CYCLE);
+		assertArrayEquals(expected, restored.getCheckpoint());
+		restored.close();
+	}
+
+
+	private void restore(int movementalgorithm) throws IOException {
+		MapSimulation sim = newSimulation(movementalgorithm);
+		run(sim, CHECKPOINT_CYCLE);
+		byte[] checkpoint = sim.getCheckpoint();
+		run(sim, END_CYCLE);
+		byte[] expected = sim.getCheckpoint();
+		sim.close();
+
+		// the restored simulation cuts the log back to the checkpoint and writes the same lines again
+		MapSimulation restored = MapSimulation.restore(map, checkpoint);
+		assertEquals(CHECKPOINT_CYCLE, restored.getCycles());
+		assertArrayEquals(checkpoint, restored.getCheckpoint());
+		run(restored, END_CYCLE);
+		assertArrayEquals(expected, restored.getCheckpoint());
+		restored.close();
+	}
+
+
+	private MapSimulation newSimulation(int movementalgorithm) {
+		return new MapSimulation(map, new Random(4), 40, 60, 30, movementalgorithm, 10,
+				new File(directory, "sim").getPath());
+	}
+
+
+	private static void run(MapSimulation sim, long cycles) {
+		while (sim.getCycles() < cycles) {
+			sim.simulation_step();
+		}
+	}
+}